@@ -1,5 +1,6 @@
 import os
 import json
+import numpy as np
 import pandas as pd
 
 
@@ -9,15 +10,80 @@ def load():
 
     df_result = pd.DataFrame()
     for filename in os.listdir(data_dirname):
+        if filename.endswith('.etag'):
+            continue
+        if filename.endswith('.npz'):
+            df_result = pd.concat([df_result, load_columnar(os.path.join(data_dirname, filename))], axis=0)
+            continue
+        if filename.endswith('.jsonl'):
+            df_result = pd.concat([df_result, load_captured(os.path.join(data_dirname, filename))], axis=0)
+            continue
+
         builds_info_file = open(os.path.join(data_dirname, filename), 'r')
         builds_info = json.loads(builds_info_file.read())
         builds_info_file.close()
 
-        df = convert_to_data_frame(builds_info)
+        df = convert_to_data_frame(denormalize(builds_info))
         df_result = pd.concat([df_result, df], axis=0)
 
     df_result.to_csv('investigations.csv', index=False)
 
+def denormalize(builds_info):
+    if not isinstance(builds_info, dict):
+        return builds_info
+
+    users, strings, stacktraces = builds_info['users'], builds_info['strings'], builds_info['stacktraces']
+    for build in builds_info['builds']:
+        if 'committers' in build:
+            build['committers'] = [users[i] for i in build['committers']]
+        for change in build.get('changes', []):
+            if 'changesNames' in change:
+                change['changesNames'] = [strings[i] for i in change['changesNames']]
+            if 'userName' in change:
+                change['userName'] = strings[change['userName']]
+        for test in build.get('tests', []):
+            for key in ['className', 'testMethod', 'testClass', 'testSuite']:
+                if key in test:
+                    test[key] = strings[test[key]]
+            if 'previousResponsible' in test:
+                test['previousResponsible'] = [strings[i] for i in test['previousResponsible']]
+            if 'stacktrace' in test:
+                test['stacktrace'] = stacktraces[test['stacktrace']]
+    return builds_info['builds']
+
+
+def load_columnar(path):
+    columns = {}
+    with np.load(path) as npz:
+        for key in all_keys:
+            values = npz[key]
+            if key in bool_keys:
+                # int8, -1 for missing values
+                columns[key] = pd.arrays.BooleanArray(values == 1, values < 0)
+                continue
+            if key + '.offsets' not in npz.files:
+                columns[key] = values
+                continue
+
+            # dictionary encoded strings, decode the distinct values only
+            offsets, data = npz[key + '.offsets'], npz[key + '.data'].tobytes()
+            categories = [data[offsets[i]:offsets[i + 1]].decode('utf-8') for i in range(len(offsets) - 1)]
+            if key in json_keys:
+                categories = [json.loads(category) for category in categories]
+                columns[key] = [categories[code] if code >= 0 else None for code in values]
+            else:
+                columns[key] = pd.Categorical.from_codes(values, categories=pd.Index(categories, dtype=object))
+    return pd.DataFrame(columns)
+
+
+def load_captured(path):
+    # one build per line, a test captured at build finish and again when assigned is kept once
+    with open(path, 'r', encoding='utf-8') as builds_info_file:
+        builds_info = [json.loads(line) for line in builds_info_file if line.strip()]
+    df = convert_to_data_frame(builds_info)
+    return df.drop_duplicates(subset=['buildId', 'testNameId'], keep='last')
+
+
 def convert_to_data_frame(builds_info):
     result = {}
     for key in all_keys:
@@ -40,5 +106,9 @@ all_keys = ['buildId', 'clientDate', 'committers', 'changeCount', 'comment', 'tr
             'testNameId', 'stacktrace', 'className', 'testMethod', 'testClass', 'testSuite',
             'duration', 'orderId', 'isFixed', 'previousResponsible']
 
+json_keys = ['committers', 'changes', 'reasons', 'previousResponsible']
+
+bool_keys = ['isDefaultBranch', 'isFixed']
+
 if __name__ == '__main__':
     load()
@@ -4,6 +4,18 @@ import os
 import logging
 import argparse
 import time
+from concurrent.futures import ThreadPoolExecutor
+
+
+def get_collector(url, params, headers, timeout, max_attempts=10):
+    # the collector answers 429 with Retry-After when too many requests are running
+    for attempt in range(max_attempts):
+        response = requests.get(url, params=params, headers=headers, timeout=timeout)
+        if response.status_code != 429 or attempt == max_attempts - 1:
+            return response
+        retry_after = int(response.headers.get('Retry-After', 1))
+        logging.info(f'Collector is busy, retrying in {retry_after} seconds')
+        time.sleep(retry_after)
 
 
 def load_build_ids(host, project_id, token, timeout=10800):
@@ -28,15 +40,31 @@ def load_build_ids(host, project_id, token, timeout=10800):
     logging.info(f'Build ids received')
 
 
-def load_build_test_ids(host, project_id, token, timeout=10800):
-    response = requests.get(f'{host}/buildTestIdsCollector.html',
-                            params={'projectExternalId': project_id},
-                            headers={'Authorization': token}, timeout=timeout)
+def load_build_test_ids(host, project_id, token, page_size=None, parallel_pages=1, filters=None, timeout=10800):
+    params = {'projectExternalId': project_id, **(filters or {})}
+    if page_size is None:
+        response = get_collector(f'{host}/buildTestIdsCollector.html',
+                                 params=params,
+                                 headers={'Authorization': token}, timeout=timeout)
+        build_test_ids = json.loads(response.text)
+    else:
+        def load_page(offset):
+            page_response = get_collector(f'{host}/buildTestIdsCollector.html',
+                                          params={**params, 'offset': offset, 'limit': page_size},
+                                          headers={'Authorization': token}, timeout=timeout)
+            logging.info(f'Build test ids page from {offset} received')
+            return json.loads(page_response.text)
+
+        # the first page tells the number of tests, the rest of the pages are independent
+        first_page = load_page(0)
+        offsets = range(page_size, first_page['totalTests'], page_size)
+        with ThreadPoolExecutor(max_workers=parallel_pages) as executor:
+            pages = [first_page] + list(executor.map(load_page, offsets))
+        build_test_ids = [pair for page in pages for pair in page['ids']]
 
-    response_json = json.loads(response.text)
     dirname = os.path.dirname(__file__)
     file_ids = open(os.path.join(dirname, 'build_test_ids.json'), 'w')
-    file_ids.write(str(response_json))
+    file_ids.write(json.dumps(build_test_ids))
     file_ids.close()
     logging.info(f'Build test ids received')
 
@@ -50,18 +78,32 @@ def load_builds_info(host, project_id, token, start_from=0, batch_size=5, timeou
     for i in range(start_from, len(build_test_ids), batch_size):
         batch = build_test_ids[i:i + batch_size]
 
+        # the ETag of a downloaded batch is kept next to it, an unchanged batch is answered with 304
+        info_path = os.path.join(dirname, 'build_info', f'builds_info_{i}_{i + batch_size - 1}.json')
+        etag_path = info_path + '.etag'
+        headers = {'Authorization': token}
+        if os.path.exists(info_path) and os.path.exists(etag_path):
+            with open(etag_path, 'r') as etag_file:
+                headers['If-None-Match'] = etag_file.read()
+
         time_before = time.time()
-        response = requests.get(f'{host}/assignInfoCollector.html',
-                                params={'projectExternalId': project_id,
-                                        'ids': ','.join(map(lambda pair: f'{pair["buildId"]}_{pair["testId"]}', batch))},
-                                headers={'Authorization': token}, timeout=timeout)
+        response = get_collector(f'{host}/assignInfoCollector.html',
+                                 params={'projectExternalId': project_id,
+                                         'ids': ','.join(map(lambda pair: f'{pair["buildId"]}_{pair["testId"]}', batch))},
+                                 headers=headers, timeout=timeout)
+        time_after = time.time()
 
+        if response.status_code == 304:
+            logging.info(f'Batch from {i} to {i + batch_size - 1} is not modified')
+            continue
         if not response.ok:
             logging.info(f'Error: status code {response.status_code}')
-        time_after = time.time()
-        file_info = open(os.path.join(dirname, 'build_info', f'builds_info_{i}_{i + batch_size - 1}.json'), 'w')
+        file_info = open(info_path, 'w')
         file_info.write(response.text)
         file_info.close()
+        if response.ok and 'ETag' in response.headers:
+            with open(etag_path, 'w') as etag_file:
+                etag_file.write(response.headers['ETag'])
         logging.info(f'Finished batch from {i} to {i + batch_size - 1} in {time_after - time_before} seconds')
 
 
@@ -95,11 +137,17 @@ def parse_args():
     )
     parser.add_argument('-auth_token', help='authentication token')
     parser.add_argument('-host', help='host address')
-    parser.add_argument('-project_id', help='external project id')
+    parser.add_argument('-project_id', help='comma separated external project ids')
 
     subparsers = parser.add_subparsers(dest='request_type', help='types of request')
 
     build_ids_parser = subparsers.add_parser('build_ids')
+    build_ids_parser.add_argument('-page_size', default=None, help='number of tests in one page, all at once if not set')
+    build_ids_parser.add_argument('-parallel_pages', default=1, help='number of pages requested at once')
+    build_ids_parser.add_argument('-affected_project', default=None, help='external id of a project collected with all its subprojects')
+    build_ids_parser.add_argument('-build_type', default=None, help='comma separated build configuration ids')
+    build_ids_parser.add_argument('-from_date', default=None, help='first failed build started at or after (ISO-8601)')
+    build_ids_parser.add_argument('-to_date', default=None, help='first failed build started before (ISO-8601)')
     build_info_parser = subparsers.add_parser('builds_info')
 
     build_info_parser.add_argument('-start_from', default=0, help='start position for request')
@@ -112,7 +160,11 @@ def main(args):
     logging.basicConfig(filename='data_loader.log', level=logging.DEBUG)
 
     if args.request_type == 'build_ids':
-        load_build_test_ids(args.host, args.project_id, args.auth_token)
+        filters = {'affectedProject': args.affected_project, 'buildTypeId': args.build_type, 'fromDate': args.from_date, 'toDate': args.to_date}
+        load_build_test_ids(args.host, args.project_id, args.auth_token,
+                            page_size=None if args.page_size is None else int(args.page_size),
+                            parallel_pages=int(args.parallel_pages),
+                            filters={key: value for key, value in filters.items() if value is not None})
     elif args.request_type == 'builds_info':
         load_builds_info(args.host, args.project_id, args.auth_token,
                          start_from=int(args.start_from),
@@ -0,0 +1,65 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.vcs.SVcsModification;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of the extracted records from synthetic builds, without the TeamCity lookups behind them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConstructionBenchmark {
+    @Param({"10", "100"})
+    public int changes;
+
+    private SBuild myBuild;
+    private STestRun myTestRun;
+    private SVcsModification myChange;
+    private SUser myUser;
+
+    @Setup
+    public void setUp() {
+        myBuild = Fixtures.build(1, changes, 5, 1000);
+        myTestRun = Fixtures.testRun(1, 1);
+        myChange = Fixtures.change(1, 100, Fixtures.user(1));
+        myUser = Fixtures.user(1);
+    }
+
+    @Benchmark
+    public BuildInfo buildInfo() {
+        // a new context per build, shared lookups are measured by buildInfoSharedContext
+        return new BuildInfo(myBuild, Fixtures.context());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public BuildInfo buildInfoSharedContext() {
+        ExtractionContext context = Fixtures.context();
+        BuildInfo last = null;
+        for (int i = 0; i < 10; i++) {
+            last = new BuildInfo(myBuild, context);
+        }
+        return last;
+    }
+
+    @Benchmark
+    public TestInfo testInfo() {
+        return new TestInfo(myTestRun, Fixtures.STACKTRACE);
+    }
+
+    @Benchmark
+    public ChangeInfo changeInfo() {
+        return new ChangeInfo(myChange, 100);
+    }
+
+    @Benchmark
+    public UserInfo userInfo() {
+        return new UserInfo(myUser);
+    }
+}
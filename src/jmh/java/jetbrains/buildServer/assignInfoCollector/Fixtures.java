@@ -0,0 +1,128 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.BuildProblemData;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.tests.TestName;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.users.UserSet;
+import jetbrains.buildServer.vcs.SVcsModification;
+import jetbrains.buildServer.vcs.VcsFileModification;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+import static jetbrains.buildServer.assignInfoCollector.Stubs.answers;
+import static jetbrains.buildServer.assignInfoCollector.Stubs.stub;
+
+/**
+ * Deterministic synthetic builds, the same for every run of the benchmarks.
+ */
+final class Fixtures {
+    static final String STACKTRACE;
+
+    static {
+        StringBuilder stacktrace = new StringBuilder("java.lang.AssertionError: expected:<1> but was:<2>\n");
+        for (int i = 0; i < 60; i++) {
+            stacktrace.append("\tat jetbrains.buildServer.sample.Module").append(i % 7)
+                    .append(".method").append(i).append("(Module").append(i % 7).append(".java:").append(100 + i).append(")\n");
+        }
+        STACKTRACE = stacktrace.toString();
+    }
+
+    private Fixtures() {
+    }
+
+    @NotNull
+    static SUser user(long id) {
+        return stub(SUser.class, answers(
+                "getId", id,
+                "getName", "User " + id,
+                "getExtendedName", "User " + id + " (user" + id + ")",
+                "getEmail", "user" + id + "@example.com",
+                "getLastLoginTimestamp", new Date(1_500_000_000_000L + id)));
+    }
+
+    @NotNull
+    static SVcsModification change(long id, int files, @NotNull SUser author) {
+        List<VcsFileModification> fileChanges = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            fileChanges.add(stub(VcsFileModification.class, answers("getFileName", "src/module" + (i % 5) + "/File" + i + ".java")));
+        }
+        return stub(SVcsModification.class, answers(
+                "getId", id,
+                "getChangeCount", files,
+                "getChanges", fileChanges,
+                "getDescription", "Change " + id,
+                "getVcsDate", new Date(1_500_000_000_000L + id * 1000),
+                "getUserName", author.getName()));
+    }
+
+    @NotNull
+    static STestRun testRun(int testRunId, long testNameId) {
+        STest test = stub(STest.class, answers(
+                "getTestNameId", testNameId,
+                "getName", new TestName("suite" + (testNameId % 3) + ": jetbrains.buildServer.sample.Class" + (testNameId % 50) + ".test" + testNameId)));
+        return stub(STestRun.class, answers(
+                "getTestRunId", testRunId,
+                "getTest", test,
+                "getDuration", 1000 + testRunId % 100,
+                "getOrderId", testRunId,
+                "isFixed", false));
+    }
+
+    /**
+     * @param changes number of changes, each by one of the committers and touching 20 files
+     */
+    @NotNull
+    static SBuild build(long buildId, int changes, int committers, int tests) {
+        List<SUser> users = new ArrayList<>();
+        for (int i = 0; i < committers; i++) {
+            users.add(user(i));
+        }
+        List<SVcsModification> modifications = new ArrayList<>();
+        for (int i = 0; i < changes; i++) {
+            modifications.add(change(buildId * 1000 + i, 20, users.get(i % users.size())));
+        }
+        List<STestRun> testRuns = new ArrayList<>();
+        for (int i = 0; i < tests; i++) {
+            testRuns.add(testRun(i, i));
+        }
+
+        return stub(SBuild.class, answers(
+                "getBuildId", buildId,
+                "getClientStartDate", new Date(1_500_000_000_000L + buildId * 60_000),
+                "getCommitters", stub(UserSet.class, answers("getUsers", new LinkedHashSet<>(users))),
+                "getChanges", modifications,
+                "getTriggeredBy", stub(TriggeredBy.class, answers("getAsString", "Schedule Trigger")),
+                "getFailureReasons", Collections.singletonList(BuildProblemData.createBuildProblem("identity", "TC_FAILED_TESTS", "Tests failed")),
+                "getBuildDescription", "Build " + buildId,
+                "getBranch", stub(Branch.class, answers("isDefaultBranch", true, "getName", "master")),
+                "getFullStatistics", stub(BuildStatistics.class, answers("getAllTests", testRuns))));
+    }
+
+    @NotNull
+    static ExtractionContext context() {
+        return new ExtractionContext(stub(ProjectManager.class), Limits.getDefault());
+    }
+
+    /**
+     * @return builds with tests and previous responsibles, as they are serialized by the controller
+     */
+    @NotNull
+    static List<BuildInfo> buildInfos(int builds, int testsPerBuild) {
+        ExtractionContext context = context();
+        List<BuildInfo> result = new ArrayList<>();
+        for (int i = 0; i < builds; i++) {
+            BuildInfo buildInfo = new BuildInfo(build(i, 10, 3, 0), context);
+            List<TestInfo> tests = new ArrayList<>();
+            for (int j = 0; j < testsPerBuild; j++) {
+                TestInfo test = new TestInfo(testRun(j, j), STACKTRACE);
+                test.setPreviousResponsible(Arrays.asList("User " + (j % 5), "User " + (j % 7)));
+                tests.add(test);
+            }
+            buildInfo.setTests(tests);
+            result.add(buildInfo);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the {@code ids} parameter and of the POST bodies, see {@link BuildTestIds}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IdsParsingBenchmark {
+    @Param({"10000", "100000"})
+    public int pairs;
+
+    private String myText;
+    private byte[] myBinary;
+
+    @Setup
+    public void setUp() {
+        // fixed seed, about 20 tests per build
+        Random random = new Random(42);
+        long[] buildIds = new long[pairs];
+        long[] testIds = new long[pairs];
+        long buildId = 1_000_000;
+        for (int i = 0; i < pairs; i++) {
+            if (i % 20 == 0) {
+                buildId += 1 + random.nextInt(100);
+            }
+            buildIds[i] = buildId;
+            testIds[i] = random.nextInt(1_000_000_000);
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pairs; i++) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(buildIds[i]).append('_').append(testIds[i]);
+        }
+        myText = text.toString();
+        myBinary = encodeBinary(buildIds, testIds);
+    }
+
+    @Benchmark
+    public BuildTestIds parseParameter() {
+        return BuildTestIds.parseText(myText);
+    }
+
+    @Benchmark
+    public BuildTestIds parseTextBody() throws IOException {
+        return BuildTestIds.parseText(new StringReader(myText));
+    }
+
+    @Benchmark
+    public BuildTestIds parseBinaryBody() throws IOException {
+        return BuildTestIds.parseBinary(new ByteArrayInputStream(myBinary));
+    }
+
+    private static byte[] encodeBinary(long[] buildIds, long[] testIds) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long previousBuildId = 0;
+        long previousTestId = 0;
+        for (int i = 0; i < buildIds.length; i++) {
+            writeVarLong(out, buildIds[i] - previousBuildId);
+            writeVarLong(out, testIds[i] - previousTestId);
+            previousBuildId = buildIds[i];
+            previousTestId = testIds[i];
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.write((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+}
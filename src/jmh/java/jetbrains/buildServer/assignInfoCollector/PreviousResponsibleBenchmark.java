@@ -0,0 +1,80 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.responsibility.ResponsibilityEntry;
+import jetbrains.buildServer.responsibility.TestNameResponsibilityEntry;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.audit.AuditLogProvider;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static jetbrains.buildServer.assignInfoCollector.Stubs.answers;
+import static jetbrains.buildServer.assignInfoCollector.Stubs.stub;
+
+/**
+ * Previous responsible lookup with an empty audit log: {@code cold} measures the object id generation
+ * and chunking of the audit queries, {@code warm} the grouping of indexed responsibles across the project hierarchy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PreviousResponsibleBenchmark {
+    private static final int RESPONSIBLES_PER_TEST = 3;
+
+    @Param({"1000", "10000"})
+    public int tests;
+
+    @Param({"1", "4"})
+    public int hierarchyDepth;
+
+    private AuditLogProvider myAuditLogProvider;
+    private Set<Long> myTestNameIds;
+    private Set<String> myProjectIds;
+    private PreviousResponsibleIndex myWarmIndex;
+
+    @Setup
+    public void setUp() {
+        myAuditLogProvider = stub(AuditLogProvider.class);
+        myTestNameIds = new LinkedHashSet<>();
+        for (long i = 0; i < tests; i++) {
+            myTestNameIds.add(1_000_000 + i * 7);
+        }
+        myProjectIds = new LinkedHashSet<>();
+        for (int i = 0; i < hierarchyDepth; i++) {
+            myProjectIds.add("project" + i);
+        }
+
+        myWarmIndex = createIndex();
+        myWarmIndex.find(myTestNameIds, myProjectIds, 0);
+        SProject project = stub(SProject.class, answers("getProjectId", "project0"));
+        for (int i = 0; i < RESPONSIBLES_PER_TEST; i++) {
+            User user = stub(User.class, answers("getExtendedName", "User " + i));
+            List<TestNameResponsibilityEntry> entries = new ArrayList<>();
+            for (Long testNameId : myTestNameIds) {
+                entries.add(stub(TestNameResponsibilityEntry.class, answers(
+                        "getState", ResponsibilityEntry.State.TAKEN,
+                        "getTestNameId", testNameId,
+                        "getResponsibleUser", user)));
+            }
+            myWarmIndex.responsibleChanged(project, Collections.emptyList(), entries, true);
+        }
+    }
+
+    @Benchmark
+    public Map<Long, List<String>> cold() {
+        return createIndex().find(myTestNameIds, myProjectIds, 0);
+    }
+
+    @Benchmark
+    public Map<Long, List<String>> warm() {
+        return myWarmIndex.find(myTestNameIds, myProjectIds, 0);
+    }
+
+    private PreviousResponsibleIndex createIndex() {
+        return new PreviousResponsibleIndex(myAuditLogProvider, EventDispatcher.create(BuildServerListener.class));
+    }
+}
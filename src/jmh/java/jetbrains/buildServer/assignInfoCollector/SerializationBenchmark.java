@@ -0,0 +1,82 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a batch of builds the ways the controller writes it: the pretty-printed document,
+ * compact JSON and the streamed array of {@code stream=true}. The output is discarded, so only the encoding is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SerializationBenchmark {
+    @Param({"100", "1000"})
+    public int builds;
+
+    @Param({"20"})
+    public int testsPerBuild;
+
+    private final Gson myGson = new GsonBuilder().setPrettyPrinting().create();
+    private final Gson myCompactGson = new Gson();
+    private List<BuildInfo> myBuildInfos;
+
+    @Setup
+    public void setUp() {
+        myBuildInfos = Fixtures.buildInfos(builds, testsPerBuild);
+    }
+
+    @Benchmark
+    public String pretty() {
+        return myGson.toJson(myBuildInfos);
+    }
+
+    @Benchmark
+    public void compact(Blackhole blackhole) {
+        myCompactGson.toJson(myBuildInfos, new DiscardingWriter(blackhole));
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws IOException {
+        try (JsonArrayWriter writer = new JsonArrayWriter(myCompactGson, new DiscardingWriter(blackhole))) {
+            for (BuildInfo buildInfo : myBuildInfos) {
+                writer.write(buildInfo);
+                writer.flush();
+            }
+            writer.finish();
+        }
+    }
+
+    private static class DiscardingWriter extends Writer {
+        private final Blackhole myBlackhole;
+
+        DiscardingWriter(Blackhole blackhole) {
+            myBlackhole = blackhole;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            myBlackhole.consume(buffer);
+        }
+
+        @Override
+        public void write(String string, int offset, int length) {
+            myBlackhole.consume(string);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
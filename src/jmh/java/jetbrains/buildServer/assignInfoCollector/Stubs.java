@@ -0,0 +1,64 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Synthetic TeamCity objects for the benchmarks, so they run without a server.
+ * Methods return the configured answer, or an empty value of their return type.
+ */
+final class Stubs {
+    private Stubs() {
+    }
+
+    @NotNull
+    static <T> T stub(@NotNull Class<T> type, @NotNull Map<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+            }
+            if (answers.containsKey(method.getName())) {
+                return answers.get(method.getName());
+            }
+            return emptyValue(method.getReturnType());
+        }));
+    }
+
+    @NotNull
+    static <T> T stub(@NotNull Class<T> type) {
+        return stub(type, Collections.emptyMap());
+    }
+
+    @NotNull
+    static Map<String, Object> answers(@NotNull Object... namesAndValues) {
+        Map<String, Object> result = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            result.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return result;
+    }
+
+    private static Object emptyValue(@NotNull Class<?> type) {
+        if (type == Object.class) return null;
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        if (type == short.class) return (short) 0;
+        if (type == byte.class) return (byte) 0;
+        if (type == char.class) return (char) 0;
+        if (type.isAssignableFrom(List.class)) return Collections.emptyList();
+        if (type.isAssignableFrom(Set.class)) return Collections.emptySet();
+        if (type.isAssignableFrom(Map.class)) return Collections.emptyMap();
+        if (type.isInterface()) return stub(type);
+        return null;
+    }
+}
@@ -0,0 +1,199 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.responsibility.ResponsibilityEntry;
+import jetbrains.buildServer.responsibility.InvestigationTestRunsHolder;
+import jetbrains.buildServer.responsibility.TestNameResponsibilityEntry;
+import jetbrains.buildServer.responsibility.impl.InvestigationTestRunsHolderImpl;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.auth.SecurityContextEx;
+import jetbrains.buildServer.serverSide.stat.FirstFailedInFixedInCalculator;
+import jetbrains.buildServer.util.EventDispatcher;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static jetbrains.buildServer.serverSide.BuildStatisticsOptions.ALL_TESTS_NO_DETAILS;
+
+/**
+ * Optional capture of records while the data is fresh: when a build finishes, its failed tests under investigation
+ * are extracted and appended to {@code <plugin data dir>/assignInfoCollector/capture/builds_info.jsonl},
+ * one compact {@link BuildInfo} per line. Tests assigned later are captured with the build their last failure
+ * started in, as {@code /buildTestIdsCollector.html} returns them.
+ * <p>
+ * Events only put a task into a bounded queue on a single worker, a task which doesn't fit is dropped and logged,
+ * so finishing builds is never slowed down by the capture.
+ */
+public class BuildFinishCapture extends BuildServerAdapter implements DisposableBean {
+    private static final Logger LOG = Logger.getInstance(BuildFinishCapture.class.getName());
+
+    private static final String ENABLED_PROPERTY = "teamcity.assignInfoCollector.capture.enabled";
+    private static final String QUEUE_SIZE_PROPERTY = "teamcity.assignInfoCollector.capture.queueSize";
+    private static final String MAX_FILE_SIZE_PROPERTY = "teamcity.assignInfoCollector.capture.maxFileSizeMb";
+    private static final String LOG_FILE = "builds_info.jsonl";
+
+    private final SBuildServer server;
+    private final InvestigationTestRunsHolder testRunsHolder;
+    private final FirstFailedInFixedInCalculator statisticsProvider;
+    private final BuildInfoCollector myBuildInfoCollector;
+    private final CollectorMetrics myCollectorMetrics;
+    private final SecurityContextEx mySecurityContext;
+    private final File myCaptureDir;
+    private final ThreadPoolExecutor myExecutor;
+    private final AtomicLong myDropped = new AtomicLong();
+    private final Gson myGson = new Gson();
+
+    public BuildFinishCapture(@NotNull final SBuildServer server,
+                              @NotNull final ServerPaths serverPaths,
+                              @NotNull final InvestigationTestRunsHolderImpl testRunsHolder,
+                              @NotNull final FirstFailedInFixedInCalculator statisticsProvider,
+                              @NotNull final BuildInfoCollector buildInfoCollector,
+                              @NotNull final CollectorMetrics collectorMetrics,
+                              @NotNull final SecurityContextEx securityContext,
+                              @NotNull final EventDispatcher<BuildServerListener> eventDispatcher) {
+        this.server = server;
+        this.testRunsHolder = testRunsHolder;
+        this.statisticsProvider = statisticsProvider;
+        myBuildInfoCollector = buildInfoCollector;
+        myCollectorMetrics = collectorMetrics;
+        mySecurityContext = securityContext;
+        myCaptureDir = new File(serverPaths.getPluginDataDirectory(), "assignInfoCollector/capture");
+        myExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, TeamCityProperties.getInteger(QUEUE_SIZE_PROPERTY, 1000))),
+                new NamedThreadFactory("AssignInfoCollectorCapture"));
+        eventDispatcher.addListener(this);
+    }
+
+    @Override
+    public void buildFinished(@NotNull SRunningBuild build) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        long buildId = build.getBuildId();
+        submit("build " + buildId, () -> captureBuild(buildId));
+    }
+
+    @Override
+    public void responsibleChanged(@NotNull SProject project,
+                                   @NotNull Collection<TestNameResponsibilityEntry> oldValues,
+                                   @NotNull Collection<TestNameResponsibilityEntry> newValues,
+                                   boolean isUserAction) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Set<Long> testNameIds = new HashSet<>();
+        for (TestNameResponsibilityEntry entry : newValues) {
+            if (entry.getState() == ResponsibilityEntry.State.TAKEN) {
+                testNameIds.add(entry.getTestNameId());
+            }
+        }
+        if (!testNameIds.isEmpty()) {
+            String projectId = project.getProjectId();
+            submit(testNameIds.size() + " assigned tests in " + project.getExternalId(), () -> captureAssignedTests(testNameIds, projectId));
+        }
+    }
+
+    private boolean isEnabled() {
+        return TeamCityProperties.getBoolean(ENABLED_PROPERTY);
+    }
+
+    private void submit(@NotNull String description, @NotNull Runnable task) {
+        try {
+            myExecutor.execute(() -> {
+                try {
+                    mySecurityContext.runAsSystem(task::run);
+                } catch (Throwable e) {
+                    LOG.warn("Failed to capture " + description, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Capture queue is full, dropped " + description + " (" + myDropped.incrementAndGet() + " dropped in total)");
+        }
+    }
+
+    private void captureBuild(long buildId) {
+        SBuild build = server.findBuildInstanceById(buildId);
+        if (build == null || build.isAgentLessBuild() || build.getBuildStatus().isSuccessful()) {
+            return;
+        }
+
+        List<STestRun> failedTests = build.getBuildStatistics(ALL_TESTS_NO_DETAILS).getFailedTests();
+        if (failedTests.isEmpty()) {
+            return;
+        }
+
+        BuildTestIds ids = new BuildTestIds();
+        for (STestRun testRun : failedTests) {
+            if (!testRun.getTest().getAllResponsibilities().isEmpty()) {
+                ids.add(buildId, testRun.getTest().getTestNameId());
+            }
+        }
+        capture(ids);
+    }
+
+    private void captureAssignedTests(@NotNull Set<Long> testNameIds, @NotNull String projectId) {
+        BuildTestIds ids = new BuildTestIds();
+        for (STestRun testRun : testRunsHolder.getLastTestRunsInBulk(testNameIds, projectId, false)) {
+            if (testRun.getStatus().isFailed()) {
+                @Nullable SBuild firstFailedBuild = statisticsProvider.calculateFFIData(testRun).getFirstFailedIn();
+                if (firstFailedBuild != null) {
+                    ids.add(firstFailedBuild.getBuildId(), testRun.getTest().getTestNameId());
+                }
+            }
+        }
+        capture(ids);
+    }
+
+    private void capture(@NotNull BuildTestIds ids) {
+        if (ids.getBuildCount() == 0) {
+            return;
+        }
+
+        try (RequestMetrics metrics = myCollectorMetrics.start("capture")) {
+            Iterator<BuildInfo> builds = myBuildInfoCollector.collect(ids, myBuildInfoCollector.createDefaultOptions(), metrics);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    metrics.countBytes(new FileOutputStream(getLogFile(), true)), StandardCharsets.UTF_8))) {
+                while (builds.hasNext()) {
+                    writer.write(myGson.toJson(builds.next()));
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to write captured builds: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the log file, a file over {@code capture.maxFileSizeMb} is renamed with a timestamp first
+     */
+    @NotNull
+    private File getLogFile() {
+        //noinspection ResultOfMethodCallIgnored
+        myCaptureDir.mkdirs();
+        File logFile = new File(myCaptureDir, LOG_FILE);
+        long maxSize = TeamCityProperties.getLong(MAX_FILE_SIZE_PROPERTY, 512) * 1024 * 1024;
+        if (logFile.length() > maxSize
+                && !logFile.renameTo(new File(myCaptureDir, "builds_info_" + System.currentTimeMillis() + ".jsonl"))) {
+            LOG.warn("Failed to rotate " + logFile.getAbsolutePath());
+        }
+        return logFile;
+    }
+
+    @Override
+    public void destroy() {
+        myExecutor.shutdownNow();
+    }
+}
@@ -3,14 +3,11 @@ package jetbrains.buildServer.assignInfoCollector;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import jetbrains.buildServer.controllers.BaseController;
-import jetbrains.buildServer.issueTracker.errors.NotFoundException;
 import jetbrains.buildServer.responsibility.InvestigationTestRunsHolder;
 import jetbrains.buildServer.responsibility.TestNameResponsibilityEntry;
 import jetbrains.buildServer.responsibility.TestNameResponsibilityFacade;
 import jetbrains.buildServer.responsibility.impl.InvestigationTestRunsHolderImpl;
 import jetbrains.buildServer.serverSide.*;
-import jetbrains.buildServer.serverSide.auth.AccessDeniedException;
-import jetbrains.buildServer.serverSide.auth.Permission;
 import jetbrains.buildServer.serverSide.auth.SecurityContext;
 import jetbrains.buildServer.serverSide.stat.FirstFailedInFixedInCalculator;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
@@ -24,17 +21,35 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+/**
+ * Returns (first failed build, test) pairs for the tests under investigation in the requested projects,
+ * see {@link ProjectSelection}. Tests are sorted by id and can be requested page by page with {@code offset} and {@code limit},
+ * their last runs are loaded in chunks of {@code teamcity.assignInfoCollector.buildIds.chunkSize} tests.
+ * A chunk holds all projects of its tests, so every pair is found in one chunk and is deduplicated there.
+ */
 public class BuildIdsController extends BaseController {
+    private static final String CHUNK_SIZE_PROPERTY = "teamcity.assignInfoCollector.buildIds.chunkSize";
+    private static final String SINCE_OVERLAP_PROPERTY = "teamcity.assignInfoCollector.buildIds.sinceOverlapMs";
+
     private final ProjectManager projectManager;
     private final InvestigationTestRunsHolder testRunsHolderCache;
     private final TestNameResponsibilityFacade responsibilityFacade;
     private final FirstFailedInFixedInCalculator statisticsProvider;
     private final SecurityContext mySecurityContext;
+    private final CollectorExecutor myExecutor;
+    private final CollectorMetrics myCollectorMetrics;
+    private final CollectorAdmission myAdmission;
 
     private final Gson myGson = new GsonBuilder().setPrettyPrinting().create();
+    private final Gson myCompactGson = new Gson();
 
     public BuildIdsController(@NotNull final SBuildServer server,
                               @NotNull final WebControllerManager manager,
@@ -42,13 +57,19 @@ public class BuildIdsController extends BaseController {
                               @NotNull final SecurityContext securityContext,
                               @NotNull final TestNameResponsibilityFacade responsibilityFacade,
                               @NotNull final InvestigationTestRunsHolderImpl testRunsHolderCache,
-                              @NotNull final FirstFailedInFixedInCalculator statisticsProvider) {
+                              @NotNull final FirstFailedInFixedInCalculator statisticsProvider,
+                              @NotNull final CollectorExecutor executor,
+                              @NotNull final CollectorMetrics collectorMetrics,
+                              @NotNull final CollectorAdmission admission) {
         super(server);
         this.projectManager = projectManager;
         this.responsibilityFacade = responsibilityFacade;
         this.testRunsHolderCache = testRunsHolderCache;
         this.statisticsProvider = statisticsProvider;
         mySecurityContext = securityContext;
+        myExecutor = executor;
+        myCollectorMetrics = collectorMetrics;
+        myAdmission = admission;
         manager.registerController("/buildTestIdsCollector.html", this);
     }
 
@@ -59,51 +80,185 @@ public class BuildIdsController extends BaseController {
             throw new HttpRequestMethodNotSupportedException(request.getMethod());
         }
 
-        @Nullable SProject project = getProjectByExternalId(request.getParameter("projectExternalId"));
-        if (project == null) {
-            throw new NotFoundException("Project with specified externalProjectId not found");
-        } else if (!mySecurityContext.getAuthorityHolder().getPermissionsGrantedForProject(project.getProjectId()).contains(Permission.VIEW_PROJECT)) {
-            throw new IllegalAccessException("User doesn't have enough permissions. " + Permission.VIEW_PROJECT.getName() + " permission required.");
+        List<SProject> projects = ProjectSelection.resolve(projectManager, mySecurityContext, request);
+
+        try (RequestMetrics metrics = myCollectorMetrics.start("buildTestIdsCollector")) {
+            if (Boolean.parseBoolean(request.getParameter("timing"))) {
+                response = metrics.withTimingHeaders(response);
+            }
+
+            try (CollectorAdmission.Permit permit = myAdmission.acquire(request, response, metrics)) {
+                if (permit == null) {
+                    return null;
+                }
+
+                int parallelism = myExecutor.getRequestParallelism(request.getParameter("parallelism"));
+                List<ProjectTest> tests = findInvestigatedTests(projects, parallelism, metrics);
+
+                Filter filter = Filter.create(request, TeamCityProperties.getLong(SINCE_OVERLAP_PROPERTY, 60000));
+                // builds finishing from now on are returned by the next call
+                Long cursor = filter.finishedSince == null ? null : System.currentTimeMillis();
+                Page page = Page.create(request, tests.size());
+
+                Iterator<BuildTestId> buildsTests = findBuildTestIds(tests.subList(page.offset, page.end), filter, parallelism, metrics);
+
+                boolean wrapped = cursor != null || page.isLimited();
+                ResponseEncoding encoding = ResponseEncoding.select(request);
+                response.addHeader("Vary", "Accept-Encoding");
+                if (Boolean.parseBoolean(request.getParameter("stream"))) {
+                    streamResponse(response, buildsTests, cursor, page, wrapped, encoding, metrics);
+                } else {
+                    Set<BuildTestId> buildTestIds = new LinkedHashSet<>();
+                    buildsTests.forEachRemaining(buildTestIds::add);
+
+                    if (!wrapped) {
+                        sendResponse(response, buildTestIds, encoding, metrics);
+                    } else {
+                        sendResponse(response, new BuildTestIdsPage(buildTestIds,
+                                cursor,
+                                page.getNextOffset(),
+                                page.isLimited() ? page.total : null), encoding, metrics);
+                    }
+                }
+            }
         }
+        return null;
+    }
+
+    /**
+     * Responsibilities of the projects are loaded in parallel.
+     *
+     * @return investigated tests of the projects sorted by test id
+     */
+    @NotNull
+    private List<ProjectTest> findInvestigatedTests(@NotNull List<SProject> projects, int parallelism, @NotNull RequestMetrics metrics) {
+        Iterator<List<TestNameResponsibilityEntry>> responsibilities = myExecutor.mapOrdered(projects, parallelism,
+                project -> metrics.time("responsibilities", () -> responsibilityFacade.getUserTestNameResponsibilities(null, project.getProjectId())));
 
-        Set<Long> testIds = new HashSet<>();
-        List<TestNameResponsibilityEntry> responsibilities = responsibilityFacade.getUserTestNameResponsibilities(null,
-                project.getProjectId());
-        for (TestNameResponsibilityEntry responsibility : responsibilities) {
-            testIds.add(responsibility.getTestNameId());
+        Set<ProjectTest> tests = new HashSet<>();
+        for (SProject project : projects) {
+            for (TestNameResponsibilityEntry responsibility : responsibilities.next()) {
+                tests.add(new ProjectTest(project.getProjectId(), responsibility.getTestNameId()));
+            }
         }
+        List<ProjectTest> result = new ArrayList<>(tests);
+        result.sort(Comparator.comparingLong((ProjectTest test) -> test.testId).thenComparing(test -> test.projectId));
+        return result;
+    }
+
+    /**
+     * Loads the last runs of the tests chunk by chunk, a chunk is loaded when the previous one is consumed.
+     * The runs of the projects of a chunk are loaded in parallel.
+     *
+     * @param tests tests sorted by test id
+     * @return distinct pairs accepted by the filter
+     */
+    @NotNull
+    private Iterator<BuildTestId> findBuildTestIds(@NotNull List<ProjectTest> tests,
+                                                   @NotNull Filter filter,
+                                                   int parallelism,
+                                                   @NotNull RequestMetrics metrics) {
+        int chunkSize = Math.max(1, TeamCityProperties.getInteger(CHUNK_SIZE_PROPERTY, 1000));
 
-        List<STestRun> lastTestRuns = testRunsHolderCache.getLastTestRunsInBulk(testIds, project.getProjectId(), false);
+        return new Iterator<BuildTestId>() {
+            // (build, testNameId) -> first failed in, shared by duplicate test runs of the chunk
+            private final Map<BuildTestId, CompletableFuture<BuildTestId>> myFirstFailedIn = new ConcurrentHashMap<>();
+            // pairs of the chunk returned so far
+            private final Set<BuildTestId> myReturned = new HashSet<>();
+            private int myNextChunk;
+            private Iterator<BuildTestId> myCurrent = Collections.emptyIterator();
+            @Nullable private BuildTestId myNext;
 
-        Set<BuildTestId> buildsTests = lastTestRuns.stream()
-                .filter(testRun -> testRun.getStatus().isFailed())
-                .map(testRun -> {
-                    final SBuild firstFailedBuild = findFirstFailedInBuild(testRun);
-                    if (firstFailedBuild != null) {
-                        return new BuildTestId(testRun, firstFailedBuild);
+            @Override
+            public boolean hasNext() {
+                while (myNext == null) {
+                    if (myCurrent.hasNext()) {
+                        BuildTestId buildTestId = myCurrent.next();
+                        if (buildTestId != null && myReturned.add(buildTestId)) {
+                            myNext = buildTestId;
+                        }
+                    } else if (myNextChunk < tests.size()) {
+                        loadChunk();
                     } else {
-                        return null;
+                        return false;
                     }
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+                }
+                return true;
+            }
 
-        sendResponse(response, buildsTests);
-        return null;
+            @Override
+            public BuildTestId next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                BuildTestId result = myNext;
+                myNext = null;
+                return result;
+            }
+
+            private void loadChunk() {
+                // the projects of the last test are not split between chunks
+                int end = Math.min(tests.size(), myNextChunk + chunkSize);
+                while (end < tests.size() && tests.get(end).testId == tests.get(end - 1).testId) {
+                    end++;
+                }
+
+                // projectId -> test ids
+                Map<String, Set<Long>> chunk = new LinkedHashMap<>();
+                for (ProjectTest test : tests.subList(myNextChunk, end)) {
+                    chunk.computeIfAbsent(test.projectId, id -> new LinkedHashSet<>()).add(test.testId);
+                }
+                myNextChunk = end;
+                myFirstFailedIn.clear();
+                myReturned.clear();
+
+                List<STestRun> lastTestRuns = new ArrayList<>();
+                myExecutor.mapOrdered(chunk.entrySet(), parallelism, projectTests -> metrics.time("lastTestRuns",
+                        () -> testRunsHolderCache.getLastTestRunsInBulk(projectTests.getValue(), projectTests.getKey(), false)))
+                        .forEachRemaining(lastTestRuns::addAll);
+
+                // the first failed build can't be newer than the build of the last run,
+                // so runs from builds before the date range can be skipped without walking the history
+                List<STestRun> failedTestRuns = lastTestRuns.stream()
+                        .filter(testRun -> testRun.getStatus().isFailed())
+                        .filter(filter::acceptsLastRun)
+                        .collect(Collectors.toList());
+                metrics.count(RequestMetrics.TESTS, failedTestRuns.size());
+
+                myCurrent = myExecutor.mapOrdered(failedTestRuns, parallelism,
+                        testRun -> metrics.time("firstFailedIn", () -> findBuildTestId(testRun, filter, myFirstFailedIn)));
+            }
+        };
     }
 
     @Nullable
-    private SProject getProjectByExternalId(@Nullable final String projectExternalId) throws AccessDeniedException {
-        if (projectExternalId == null) {
-            return null;
+    private BuildTestId findBuildTestId(@NotNull STestRun testRun,
+                                        @NotNull Filter filter,
+                                        @NotNull Map<BuildTestId, CompletableFuture<BuildTestId>> firstFailedIn) {
+        BuildTestId key = new BuildTestId(testRun, testRun.getBuild());
+        CompletableFuture<BuildTestId> result = new CompletableFuture<>();
+        CompletableFuture<BuildTestId> existing = firstFailedIn.putIfAbsent(key, result);
+        if (existing != null) {
+            return existing.join();
         }
 
-        @Nullable SProject project = projectManager.findProjectByExternalId(projectExternalId); // throws AccessDeniedException if no rights
-        if (project == null) {
-            throw new NotFoundException("Project with specified externalProjectId not found");
+        try {
+            result.complete(createBuildTestId(testRun, filter));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            throw e;
         }
+        return result.join();
+    }
 
-        return project;
+    @Nullable
+    private BuildTestId createBuildTestId(@NotNull STestRun testRun, @NotNull Filter filter) {
+        final SBuild firstFailedBuild = findFirstFailedInBuild(testRun);
+        if (firstFailedBuild != null && filter.acceptsFirstFailed(firstFailedBuild)) {
+            return new BuildTestId(testRun, firstFailedBuild);
+        } else {
+            return null;
+        }
     }
 
     @Nullable
@@ -114,13 +269,206 @@ public class BuildIdsController extends BaseController {
     }
 
     private void sendResponse(@NotNull HttpServletResponse servletResponse,
-                              @NotNull Set<BuildTestId> buildTestIds) throws IOException {
-        try (OutputStreamWriter writer = new OutputStreamWriter(servletResponse.getOutputStream(), StandardCharsets.UTF_8)) {
-            servletResponse.setContentType("application/json");
+                              @NotNull Object buildTestIds,
+                              @NotNull ResponseEncoding encoding,
+                              @NotNull RequestMetrics metrics) throws IOException {
+        servletResponse.setContentType("application/json");
+        try (OutputStreamWriter writer = new OutputStreamWriter(encoding.open(servletResponse, metrics), StandardCharsets.UTF_8);
+             RequestMetrics.Timer ignored = metrics.start("serialize")) {
             writer.write(myGson.toJson(buildTestIds));
         }
     }
 
+    private void streamResponse(@NotNull HttpServletResponse servletResponse,
+                                @NotNull Iterator<BuildTestId> buildsTests,
+                                @Nullable Long cursor,
+                                @NotNull Page page,
+                                boolean wrapped,
+                                @NotNull ResponseEncoding encoding,
+                                @NotNull RequestMetrics metrics) throws IOException {
+        servletResponse.setContentType("application/json");
+        try (JsonArrayWriter writer = new JsonArrayWriter(myCompactGson,
+                new OutputStreamWriter(encoding.open(servletResponse, metrics), StandardCharsets.UTF_8),
+                wrapped ? BuildTestIdsPage.IDS : null)) {
+            while (buildsTests.hasNext()) {
+                writer.write(buildsTests.next());
+                writer.flush();
+            }
+
+            if (cursor != null) {
+                writer.addTrailingProperty(BuildTestIdsPage.CURSOR, cursor);
+            }
+            if (page.getNextOffset() != null) {
+                writer.addTrailingProperty(BuildTestIdsPage.NEXT_OFFSET, page.getNextOffset());
+            }
+            if (page.isLimited()) {
+                writer.addTrailingProperty(BuildTestIdsPage.TOTAL_TESTS, page.total);
+            }
+            writer.finish();
+        }
+    }
+
+    private static class BuildTestIdsPage {
+        static final String IDS = "ids";
+        static final String CURSOR = "cursor";
+        static final String NEXT_OFFSET = "nextOffset";
+        static final String TOTAL_TESTS = "totalTests";
+
+        // null fields are not serialized
+        final Set<BuildTestId> ids;
+        final Long cursor;
+        final Integer nextOffset;
+        final Integer totalTests;
+
+        BuildTestIdsPage(Set<BuildTestId> ids, Long cursor, Integer nextOffset, Integer totalTests) {
+            this.ids = ids;
+            this.cursor = cursor;
+            this.nextOffset = nextOffset;
+            this.totalTests = totalTests;
+        }
+    }
+
+    /**
+     * Range of the sorted test ids requested with {@code offset} and {@code limit}.
+     */
+    static class Page {
+        final int offset;
+        final int end;
+        final int total;
+        private final boolean myLimited;
+
+        private Page(int offset, int end, int total, boolean limited) {
+            this.offset = offset;
+            this.end = end;
+            this.total = total;
+            myLimited = limited;
+        }
+
+        @NotNull
+        static Page create(@NotNull HttpServletRequest request, int total) {
+            String offsetParameter = request.getParameter("offset");
+            String limitParameter = request.getParameter("limit");
+            int offset = offsetParameter == null ? 0 : Integer.parseInt(offsetParameter);
+            if (offset < 0) {
+                throw new IllegalArgumentException("offset must not be negative, got " + offset);
+            }
+            if (limitParameter == null) {
+                return new Page(Math.min(offset, total), total, total, offsetParameter != null);
+            }
+
+            int limit = Integer.parseInt(limitParameter);
+            if (limit <= 0) {
+                throw new IllegalArgumentException("limit must be positive, got " + limit);
+            }
+            return new Page(Math.min(offset, total), (int) Math.min((long) offset + limit, total), total, true);
+        }
+
+        boolean isLimited() {
+            return myLimited;
+        }
+
+        @Nullable
+        Integer getNextOffset() {
+            return myLimited && end < total ? end : null;
+        }
+    }
+
+    /**
+     * Build type and date filters. The date range applies to the start of the first failed build,
+     * {@code since} to its finish: build ids and start dates follow the queue, so a build finishing late
+     * would be missed by a cursor over them. Builds finished up to {@code overlapMs} before {@code since} are accepted too,
+     * their results may have been stored after the previous call.
+     */
+    static class Filter {
+        @Nullable final Set<String> buildTypeIds;
+        @Nullable final Date fromDate;
+        @Nullable final Date toDate;
+        @Nullable final Date finishedSince;
+
+        private Filter(@Nullable Set<String> buildTypeIds, @Nullable Date fromDate, @Nullable Date toDate, @Nullable Date finishedSince) {
+            this.buildTypeIds = buildTypeIds;
+            this.fromDate = fromDate;
+            this.toDate = toDate;
+            this.finishedSince = finishedSince;
+        }
+
+        @NotNull
+        static Filter create(@NotNull HttpServletRequest request, long overlapMs) {
+            String buildTypeIds = request.getParameter("buildTypeId");
+            Date since = parseDate(request.getParameter("since"));
+            return new Filter(buildTypeIds == null ? null : new HashSet<>(Arrays.asList(buildTypeIds.split(","))),
+                    parseDate(request.getParameter("fromDate")),
+                    parseDate(request.getParameter("toDate")),
+                    since == null ? null : new Date(since.getTime() - overlapMs));
+        }
+
+        boolean acceptsLastRun(@NotNull STestRun testRun) {
+            SBuild build = testRun.getBuild();
+            if (buildTypeIds != null && !buildTypeIds.contains(build.getBuildTypeExternalId())) {
+                return false;
+            }
+            // the first failed build started before the last run
+            if (fromDate != null && build.getServerStartDate().before(fromDate)) {
+                return false;
+            }
+            // and didn't finish after it, the last run of a running build is kept
+            Date finishDate = build.getFinishDate();
+            return finishedSince == null || finishDate == null || !finishDate.before(finishedSince);
+        }
+
+        boolean acceptsFirstFailed(@NotNull SBuild build) {
+            Date startDate = build.getServerStartDate();
+            return (fromDate == null || !startDate.before(fromDate)) && (toDate == null || startDate.before(toDate))
+                    && (finishedSince == null || isFinishedSince(build.getFinishDate()));
+        }
+
+        // a running build is returned once it finishes, after the cursor of this call
+        private boolean isFinishedSince(@Nullable Date finishDate) {
+            return finishDate != null && !finishDate.before(finishedSince);
+        }
+
+        /**
+         * @param date milliseconds since the epoch, ISO-8601 date ({@code 2020-01-31}) or date-time with an offset
+         */
+        @Nullable
+        static Date parseDate(@Nullable String date) {
+            if (date == null || date.isEmpty()) {
+                return null;
+            }
+            if (date.chars().allMatch(Character::isDigit)) {
+                return new Date(Long.parseLong(date));
+            }
+            if (date.length() == 10) {
+                return Date.from(LocalDate.parse(date).atStartOfDay(ZoneOffset.UTC).toInstant());
+            }
+            return Date.from(OffsetDateTime.parse(date).toInstant());
+        }
+    }
+
+    private static class ProjectTest {
+        final String projectId;
+        final long testId;
+
+        ProjectTest(String projectId, long testId) {
+            this.projectId = projectId;
+            this.testId = testId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ProjectTest that = (ProjectTest) o;
+            return testId == that.testId &&
+                    projectId.equals(that.projectId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(projectId, testId);
+        }
+    }
+
     private static class BuildTestId {
         final long buildId;
         final long testId;
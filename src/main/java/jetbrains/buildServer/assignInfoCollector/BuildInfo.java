@@ -1,17 +1,20 @@
 package jetbrains.buildServer.assignInfoCollector;
 
 import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.vcs.SVcsModification;
 import jetbrains.buildServer.vcs.SelectPrevBuildPolicy;
 
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 class BuildInfo {
     private final long buildId;
     private final Date clientDate;
     private final List<UserInfo> committers;
-    private final int changeCount;
+    private final Integer changeCount;
     private final String comment;
     private final String triggeredBy;
     private final String description;
@@ -20,36 +23,53 @@ class BuildInfo {
     private final List<ChangeInfo> changes;
     private final List<FailureReasonInfo> reasons;
     private List<TestInfo> tests;
-    private final int testCount;
+    private final Integer testCount;
 
 
-    BuildInfo(SBuild build) {
+    BuildInfo(SBuild build, ExtractionContext context) {
+        this(build, EnumSet.allOf(InfoField.class), context);
+    }
+
+    BuildInfo(SBuild build, Set<InfoField> fields, ExtractionContext context) {
         this.buildId = build.getBuildId();
         this.clientDate = build.getClientStartDate();
-        this.committers = build.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD).getUsers()
-                .stream().map(UserInfo::new).collect(Collectors.toList());
+        this.committers = fields.contains(InfoField.COMMITTERS)
+                ? build.getCommitters(SelectPrevBuildPolicy.SINCE_LAST_BUILD).getUsers().stream().map(context::getUser).collect(Collectors.toList())
+                : null;
 
-        this.changeCount = build.getChanges(SelectPrevBuildPolicy.SINCE_LAST_BUILD, true).size();
-        this.changes = build.getChanges(SelectPrevBuildPolicy.SINCE_LAST_BUILD, true).stream()
-                .limit(Limits.CHANGE_LIMIT)
-                .map(ChangeInfo::new)
-                .collect(Collectors.toList());
+        if (fields.contains(InfoField.CHANGES)) {
+            List<SVcsModification> buildChanges = build.getChanges(SelectPrevBuildPolicy.SINCE_LAST_BUILD, true);
+            this.changeCount = buildChanges.size();
+            this.changes = buildChanges.stream()
+                    .limit(context.getLimits().changeLimit)
+                    .map(context::getChange)
+                    .collect(Collectors.toList());
+        } else {
+            this.changeCount = null;
+            this.changes = null;
+        }
 
         this.comment = build.getBuildComment() == null ? null : build.getBuildComment().getComment();
 
         this.triggeredBy = build.getTriggeredBy().getAsString();
-        this.reasons = build.getFailureReasons().stream().map(FailureReasonInfo::new).collect(Collectors.toList());
+        this.reasons = fields.contains(InfoField.REASONS)
+                ? build.getFailureReasons().stream().map(FailureReasonInfo::new).collect(Collectors.toList())
+                : null;
         this.description = build.getBuildDescription();
         
         this.isDefaultBranch = build.getBranch() != null && build.getBranch().isDefaultBranch();
         this.branchName = build.getBranch() == null ? null : build.getBranch().getName();
-        this.testCount = build.getFullStatistics().getAllTests().size();
+        this.testCount = fields.contains(InfoField.TEST_COUNT) ? build.getFullStatistics().getAllTests().size() : null;
     }
 
     public void setTests(List<TestInfo> tests) {
         this.tests = tests;
     }
 
+    public List<TestInfo> getTests() {
+        return tests;
+    }
+
     public void filterTests() {
         this.tests.removeIf(testInfo -> testInfo.getPreviousResponsible() == null);
     }
@@ -0,0 +1,227 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.LongPredicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Disk cache of extracted builds, one gzipped JSON file per build under the plugin data directory.
+ * Finished builds don't change, so a hit is served without loading the build. An entry keeps every found run
+ * of the checked tests regardless of investigations, which change, so readers filter the tests by the current ones.
+ * Entries are keyed by the extraction options, see {@link BuildInfoCollector.Options#getExtractionKey()}.
+ * The total size of the files is bounded, least recently used builds are evicted first.
+ */
+public class BuildInfoCache {
+    private static final Logger LOG = Logger.getInstance(BuildInfoCache.class.getName());
+
+    private static final String ENABLED_PROPERTY = "teamcity.assignInfoCollector.cache.enabled";
+    private static final String MAX_SIZE_PROPERTY = "teamcity.assignInfoCollector.cache.maxSizeMb";
+    private static final String FILE_SUFFIX = ".json.gz";
+    private static final int LOCK_STRIPES = 64;
+
+    private final File myCacheDir;
+    private final Gson myGson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").create();
+
+    // buildId -> file size, in access order
+    private final LinkedHashMap<Long, Long> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long myTotalSize;
+    // read, merge and write of an entry are done under the lock of its build
+    private final Object[] myBuildLocks = new Object[LOCK_STRIPES];
+
+    public BuildInfoCache(@NotNull final ServerPaths serverPaths) {
+        myCacheDir = new File(serverPaths.getPluginDataDirectory(), "assignInfoCollector/cache");
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            myBuildLocks[i] = new Object();
+        }
+        loadEntries();
+    }
+
+    boolean isEnabled() {
+        return TeamCityProperties.getBooleanOrTrue(ENABLED_PROPERTY);
+    }
+
+    /**
+     * @param extractionKey options the build is extracted with, an entry extracted with other ones is a miss
+     * @return cached build if all of the specified tests were already checked for it, null otherwise
+     */
+    @Nullable
+    CachedBuild get(long buildId, @NotNull long[] testNameIds, @NotNull String extractionKey) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        CachedBuild cached = read(buildId);
+        if (cached == null || !extractionKey.equals(cached.extractionKey)) {
+            return null;
+        }
+        for (long testNameId : testNameIds) {
+            if (!cached.checkedTestNameIds.contains(testNameId)) {
+                return null;
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Stores the build without its tests, the tests are passed separately and merged with the cached ones
+     * extracted with the same options. Must be called before previous responsibles are set, they are not cached.
+     *
+     * @param tests all found runs of the checked tests, investigated or not
+     */
+    void put(@NotNull String projectExternalId,
+             long buildId,
+             @NotNull String extractionKey,
+             @NotNull BuildInfo buildInfo,
+             @NotNull Collection<Long> checkedTestNameIds,
+             @NotNull List<TestInfo> tests) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        synchronized (myBuildLocks[Math.floorMod(Long.hashCode(buildId), LOCK_STRIPES)]) {
+            CachedBuild cached = new CachedBuild(projectExternalId, extractionKey, buildInfo);
+            CachedBuild previous = read(buildId);
+            if (previous != null && extractionKey.equals(previous.extractionKey)) {
+                cached.checkedTestNameIds.addAll(previous.checkedTestNameIds);
+                cached.tests.putAll(previous.tests);
+            }
+            cached.checkedTestNameIds.addAll(checkedTestNameIds);
+            for (TestInfo test : tests) {
+                cached.tests.put(test.getTestNameId(), test);
+            }
+
+            write(buildId, cached);
+        }
+    }
+
+    @Nullable
+    private CachedBuild read(long buildId) {
+        synchronized (myEntries) {
+            if (myEntries.get(buildId) == null) {
+                return null;
+            }
+        }
+
+        File file = getFile(buildId);
+        try (Reader reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)) {
+            CachedBuild cached = myGson.fromJson(reader, CachedBuild.class);
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return cached;
+        } catch (IOException | JsonParseException e) {
+            LOG.warn("Failed to read cached build " + buildId + ": " + e.getMessage());
+            remove(buildId);
+            return null;
+        }
+    }
+
+    private void write(long buildId, @NotNull CachedBuild cached) {
+        File file = getFile(buildId);
+        try {
+            File tmp = File.createTempFile("build", ".tmp", myCacheDir);
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmp)), StandardCharsets.UTF_8)) {
+                myGson.toJson(cached, writer);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Failed to cache build " + buildId + ": " + e.getMessage());
+            return;
+        }
+
+        synchronized (myEntries) {
+            Long previousSize = myEntries.put(buildId, file.length());
+            myTotalSize += file.length() - (previousSize == null ? 0 : previousSize);
+            evict();
+        }
+    }
+
+    private void evict() {
+        long maxSize = TeamCityProperties.getLong(MAX_SIZE_PROPERTY, 1024) * 1024 * 1024;
+        Iterator<Map.Entry<Long, Long>> eldest = myEntries.entrySet().iterator();
+        while (myTotalSize > maxSize && eldest.hasNext()) {
+            Map.Entry<Long, Long> entry = eldest.next();
+            eldest.remove();
+            myTotalSize -= entry.getValue();
+            //noinspection ResultOfMethodCallIgnored
+            getFile(entry.getKey()).delete();
+        }
+    }
+
+    private void remove(long buildId) {
+        synchronized (myEntries) {
+            Long size = myEntries.remove(buildId);
+            if (size != null) {
+                myTotalSize -= size;
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        getFile(buildId).delete();
+    }
+
+    private void loadEntries() {
+        //noinspection ResultOfMethodCallIgnored
+        myCacheDir.mkdirs();
+        File[] files = myCacheDir.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        synchronized (myEntries) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    long buildId = Long.parseLong(name.substring(0, name.length() - FILE_SUFFIX.length()));
+                    myEntries.put(buildId, file.length());
+                    myTotalSize += file.length();
+                } catch (NumberFormatException e) {
+                    LOG.warn("Unexpected file in build info cache: " + file.getAbsolutePath());
+                }
+            }
+            evict();
+        }
+    }
+
+    @NotNull
+    private File getFile(long buildId) {
+        return new File(myCacheDir, buildId + FILE_SUFFIX);
+    }
+
+    static class CachedBuild {
+        final String projectExternalId;
+        final String extractionKey;
+        final BuildInfo build;
+        final Set<Long> checkedTestNameIds = new HashSet<>();
+        final Map<Long, TestInfo> tests = new HashMap<>();
+
+        CachedBuild(String projectExternalId, String extractionKey, BuildInfo build) {
+            this.projectExternalId = projectExternalId;
+            this.extractionKey = extractionKey;
+            this.build = build;
+        }
+
+        /**
+         * @param investigated whether a test is under investigation now
+         * @return the tests an extraction of the build would return, see {@link BuildInfoCollector.TestSelection}
+         */
+        @NotNull
+        List<TestInfo> getTests(@NotNull long[] testNameIds, int limit, @NotNull LongPredicate investigated) {
+            return BuildInfoCollector.TestSelection.select(testNameIds, limit, tests::get,
+                    (TestInfo test) -> investigated.test(test.getTestNameId())).investigated;
+        }
+    }
+}
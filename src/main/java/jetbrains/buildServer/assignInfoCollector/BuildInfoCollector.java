@@ -0,0 +1,290 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.serverSide.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.*;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static jetbrains.buildServer.serverSide.BuildStatisticsOptions.ALL_TESTS_NO_DETAILS;
+
+/**
+ * Extracts {@link BuildInfo} records for requested builds and tests, used by the collector endpoints and export jobs.
+ */
+public class BuildInfoCollector {
+    private static final String MAX_PREVIOUS_RESPONSIBLES_PROPERTY = "teamcity.assignInfoCollector.audit.maxPreviousResponsibles";
+
+    private final SBuildServer server;
+    private final ProjectManager projectManager;
+    private final PreviousResponsibleIndex myPreviousResponsibleIndex;
+    private final CollectorExecutor myExecutor;
+    private final BuildInfoCache myBuildInfoCache;
+    private final STestManager myTestManager;
+
+    public BuildInfoCollector(@NotNull final SBuildServer server,
+                              @NotNull final ProjectManager projectManager,
+                              @NotNull final STestManager testManager,
+                              @NotNull final PreviousResponsibleIndex previousResponsibleIndex,
+                              @NotNull final CollectorExecutor executor,
+                              @NotNull final BuildInfoCache buildInfoCache) {
+        this.server = server;
+        this.projectManager = projectManager;
+        myPreviousResponsibleIndex = previousResponsibleIndex;
+        myExecutor = executor;
+        myBuildInfoCache = buildInfoCache;
+        myTestManager = testManager;
+    }
+
+    @NotNull
+    Options createOptions(@NotNull HttpServletRequest request) {
+        String maxPreviousResponsibles = request.getParameter("maxPreviousResponsibles");
+        return new Options(InfoField.parse(request.getParameter("fields")),
+                !"false".equals(request.getParameter("cache")),
+                myExecutor.getRequestParallelism(request.getParameter("parallelism")),
+                maxPreviousResponsibles == null
+                        ? TeamCityProperties.getInteger(MAX_PREVIOUS_RESPONSIBLES_PROPERTY, 0)
+                        : Integer.parseInt(maxPreviousResponsibles),
+                StacktraceExtractor.create(request),
+                Limits.create(request));
+    }
+
+    /**
+     * @return options of a request without parameters
+     */
+    @NotNull
+    Options createDefaultOptions() {
+        return new Options(InfoField.parse(null),
+                true,
+                myExecutor.getRequestParallelism(null),
+                TeamCityProperties.getInteger(MAX_PREVIOUS_RESPONSIBLES_PROPERTY, 0),
+                StacktraceExtractor.getDefault(),
+                Limits.getDefault());
+    }
+
+    /**
+     * @return a value which changes when builds extracted with the same options may change
+     */
+    long getContentVersion() {
+        return myPreviousResponsibleIndex.getVersion();
+    }
+
+    /**
+     * @return the server property values the defaults of the options come from,
+     * they change the content of requests with and without explicit parameters alike
+     */
+    @NotNull
+    String getServerDefaultsKey() {
+        return createDefaultOptions().getContentKey();
+    }
+
+    /**
+     * Builds are extracted on the collector pool, at most {@link Options#parallelism} at once.
+     *
+     * @param metrics receives the stage timings, including the ones of the workers
+     * @return builds in the order of the ids, builds which are not found or composite are skipped
+     */
+    @NotNull
+    Iterator<BuildInfo> collect(@NotNull BuildTestIds ids, @NotNull Options options, @NotNull RequestMetrics metrics) {
+        ExtractionContext context = new ExtractionContext(projectManager, options.limits);
+
+        // the cache keeps complete builds extracted with the default limits only
+        boolean useCache = options.useCache
+                && options.fields.containsAll(EnumSet.allOf(InfoField.class))
+                && options.stacktrace.isServerDefault()
+                && options.limits.hasDefaultBuildLimits();
+        Map<Long, BuildInfoCache.CachedBuild> cachedBuilds = new HashMap<>();
+        Set<Long> notCachedBuildIds = new HashSet<>();
+        Set<Long> testNameIds = new HashSet<>();
+        try (RequestMetrics.Timer ignored = metrics.start("cacheRead")) {
+            for (int i = 0; i < ids.getBuildCount(); i++) {
+                long[] buildTestIds = ids.getTestIds(i);
+                for (long testNameId : buildTestIds) {
+                    testNameIds.add(testNameId);
+                }
+
+                BuildInfoCache.CachedBuild cached = useCache ? myBuildInfoCache.get(ids.getBuildId(i), buildTestIds, options.getExtractionKey()) : null;
+                if (cached != null) {
+                    cachedBuilds.put(ids.getBuildId(i), cached);
+                } else {
+                    notCachedBuildIds.add(ids.getBuildId(i));
+                }
+            }
+        }
+        metrics.count(RequestMetrics.CACHE_HITS, cachedBuilds.size());
+
+        Map<Long, SFinishedBuild> finishedBuilds = metrics.time("findEntries", () -> server.getHistory().findEntries(notCachedBuildIds).stream()
+                .filter(build -> !build.isAgentLessBuild()) // filter composite builds
+                .collect(Collectors.toMap(SBuild::getBuildId, build -> build)));
+
+        Set<String> projectIds = finishedBuilds.values().stream()
+                .map(SBuild::getProjectExternalId)
+                .collect(Collectors.toSet());
+        cachedBuilds.values().forEach(cached -> projectIds.add(cached.projectExternalId));
+
+        Map<Long, List<String>> auditResult = metrics.time("audit", () -> myPreviousResponsibleIndex.find(testNameIds,
+                context.getProjectsHierarchyIds(projectIds.stream()
+                        .map(context::findProjectByExternalId)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toSet())),
+                options.maxPreviousResponsibles));
+
+        List<Integer> buildIndices = new ArrayList<>();
+        for (int i = 0; i < ids.getBuildCount(); i++) {
+            if (cachedBuilds.containsKey(ids.getBuildId(i)) || finishedBuilds.containsKey(ids.getBuildId(i))) {
+                buildIndices.add(i);
+            }
+        }
+
+        return myExecutor.mapOrdered(buildIndices, options.parallelism, index -> {
+            long buildId = ids.getBuildId(index);
+            BuildInfoCache.CachedBuild cached = cachedBuilds.get(buildId);
+            BuildInfo buildInfo = cached != null
+                    ? createBuildInfo(cached, ids.getTestIds(index), context)
+                    : createBuildInfo(finishedBuilds.get(buildId), ids.getTestIds(index), options, context, useCache, metrics);
+            buildInfo.getTests().forEach(testInfo -> testInfo.setPreviousResponsible(auditResult.get(testInfo.getTestNameId())));
+            metrics.count(RequestMetrics.BUILDS, 1);
+            metrics.count(RequestMetrics.TESTS, buildInfo.getTests().size());
+            return buildInfo;
+        });
+    }
+
+    /**
+     * With the cache all found runs of the checked tests are extracted and cached, the investigated ones are returned.
+     */
+    @NotNull
+    private BuildInfo createBuildInfo(@NotNull SBuild finishedBuild,
+                                      @NotNull long[] testNameIds,
+                                      @NotNull Options options,
+                                      @NotNull ExtractionContext context,
+                                      boolean useCache,
+                                      @NotNull RequestMetrics metrics) {
+        BuildInfo buildInfo = metrics.time("buildInfo", () -> new BuildInfo(finishedBuild, options.fields, context));
+        TestSelection<STestRun> selection;
+        try (RequestMetrics.Timer ignored = metrics.start("buildStatistics")) {
+            BuildStatistics buildStat = finishedBuild.getBuildStatistics(ALL_TESTS_NO_DETAILS);
+            selection = TestSelection.select(testNameIds, context.getLimits().testLimit,
+                    buildStat::findTestByTestNameId, testRun -> isInvestigated(testRun.getTest()));
+        }
+
+        List<STestRun> testRuns = useCache ? selection.found : selection.investigated;
+        Map<Integer, String> stacktraces = options.fields.contains(InfoField.STACKTRACE)
+                ? metrics.time("stacktraces", () -> options.stacktrace.extract(finishedBuild, testRuns))
+                : Collections.emptyMap();
+        Map<Integer, TestInfo> tests = new LinkedHashMap<>();
+        for (STestRun testRun : testRuns) {
+            tests.put(testRun.getTestRunId(), new TestInfo(testRun, stacktraces.get(testRun.getTestRunId())));
+        }
+
+        if (useCache) {
+            try (RequestMetrics.Timer ignored = metrics.start("cacheWrite")) {
+                myBuildInfoCache.put(finishedBuild.getProjectExternalId(), finishedBuild.getBuildId(), options.getExtractionKey(),
+                        buildInfo, selection.checkedTestNameIds, new ArrayList<>(tests.values()));
+            }
+        }
+        buildInfo.setTests(selection.investigated.stream()
+                .map(testRun -> tests.get(testRun.getTestRunId()))
+                .collect(Collectors.toList()));
+        return buildInfo;
+    }
+
+    @NotNull
+    private BuildInfo createBuildInfo(@NotNull BuildInfoCache.CachedBuild cached,
+                                      @NotNull long[] testNameIds,
+                                      @NotNull ExtractionContext context) {
+        BuildInfo buildInfo = cached.build;
+        @Nullable SProject project = context.findProjectByExternalId(cached.projectExternalId);
+        buildInfo.setTests(cached.getTests(testNameIds, context.getLimits().testLimit,
+                testNameId -> project != null && isInvestigated(myTestManager.createTest(testNameId, project.getProjectId()))));
+        return buildInfo;
+    }
+
+    private static boolean isInvestigated(@NotNull STest test) {
+        return !test.getAllResponsibilities().isEmpty();
+    }
+
+    /**
+     * Runs of the requested tests in the order of the ids. The limit counts investigated runs only,
+     * so an extracted build and the same build read from the cache return the same tests.
+     */
+    static class TestSelection<T> {
+        final List<Long> checkedTestNameIds = new ArrayList<>();
+        // investigated or not
+        final List<T> found = new ArrayList<>();
+        final List<T> investigated = new ArrayList<>();
+
+        private TestSelection() {
+        }
+
+        /**
+         * @param find returns the run of a test, null if the test didn't run
+         */
+        @NotNull
+        static <T> TestSelection<T> select(@NotNull long[] testNameIds,
+                                           int limit,
+                                           @NotNull LongFunction<T> find,
+                                           @NotNull Predicate<T> isInvestigated) {
+            TestSelection<T> result = new TestSelection<>();
+            for (long testNameId : testNameIds) {
+                if (result.investigated.size() >= limit) {
+                    break;
+                }
+                result.checkedTestNameIds.add(testNameId);
+
+                T run = find.apply(testNameId);
+                if (run == null) {
+                    continue;
+                }
+                result.found.add(run);
+                if (isInvestigated.test(run)) {
+                    result.investigated.add(run);
+                }
+            }
+            return result;
+        }
+    }
+
+    static class Options {
+        final Set<InfoField> fields;
+        final boolean useCache;
+        final int parallelism;
+        final int maxPreviousResponsibles;
+        final StacktraceExtractor stacktrace;
+        final Limits limits;
+
+        Options(Set<InfoField> fields,
+                boolean useCache,
+                int parallelism,
+                int maxPreviousResponsibles,
+                StacktraceExtractor stacktrace,
+                Limits limits) {
+            this.fields = fields;
+            this.useCache = useCache;
+            this.parallelism = parallelism;
+            this.maxPreviousResponsibles = maxPreviousResponsibles;
+            this.stacktrace = stacktrace;
+            this.limits = limits;
+        }
+
+        /**
+         * @return the options which affect the extracted builds without previous responsibles, the key of the cache
+         */
+        @NotNull
+        String getExtractionKey() {
+            return new TreeSet<>(fields)
+                    + ";" + stacktrace.maxLength + "," + stacktrace.topFrames + "," + stacktrace.bottomFrames
+                    + ";" + limits.testLimit + "," + limits.changeLimit + "," + limits.filesChangedLimit;
+        }
+
+        /**
+         * @return the options which affect the returned builds, parallelism and cache usage don't
+         */
+        @NotNull
+        String getContentKey() {
+            return getExtractionKey() + ";" + maxPreviousResponsibles;
+        }
+    }
+}
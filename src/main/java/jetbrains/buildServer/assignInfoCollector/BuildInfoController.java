@@ -3,18 +3,8 @@ package jetbrains.buildServer.assignInfoCollector;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import jetbrains.buildServer.controllers.BaseController;
-import jetbrains.buildServer.issueTracker.errors.NotFoundException;
-import jetbrains.buildServer.serverSide.BuildStatistics;
-import jetbrains.buildServer.serverSide.ProjectManager;
-import jetbrains.buildServer.serverSide.SBuildServer;
-import jetbrains.buildServer.serverSide.SProject;
-import jetbrains.buildServer.serverSide.audit.*;
-import jetbrains.buildServer.serverSide.auth.AccessDeniedException;
-import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.auth.SecurityContext;
-import jetbrains.buildServer.serverSide.impl.audit.filters.TestId;
-import jetbrains.buildServer.serverSide.stat.TestOutputCollector;
-import jetbrains.buildServer.users.User;
 import jetbrains.buildServer.web.openapi.WebControllerManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -24,176 +14,211 @@ import org.springframework.web.servlet.ModelAndView;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.stream.Collectors;
-
-import static jetbrains.buildServer.serverSide.BuildStatisticsOptions.ALL_TESTS_NO_DETAILS;
 
 public class BuildInfoController extends BaseController {
-    private final SBuildServer server;
     private final ProjectManager projectManager;
-    private final AuditLogProvider auditLogProvider;
     private final SecurityContext mySecurityContext;
+    private final BuildInfoCollector myBuildInfoCollector;
+    private final CollectorMetrics myCollectorMetrics;
+    private final CollectorAdmission myAdmission;
 
     private final Gson myGson = new GsonBuilder().setPrettyPrinting().create();
+    private final Gson myCompactGson = new Gson();
 
     public BuildInfoController(@NotNull final SBuildServer server,
                                @NotNull final WebControllerManager manager,
                                @NotNull final ProjectManager projectManager,
-                               @NotNull final AuditLogProvider auditLogProvider,
-                               @NotNull final SecurityContext securityContext) {
+                               @NotNull final SecurityContext securityContext,
+                               @NotNull final BuildInfoCollector buildInfoCollector,
+                               @NotNull final CollectorMetrics collectorMetrics,
+                               @NotNull final CollectorAdmission admission) {
         super(server);
-        this.server = server;
         this.projectManager = projectManager;
-        this.auditLogProvider = auditLogProvider;
         mySecurityContext = securityContext;
+        myBuildInfoCollector = buildInfoCollector;
+        myCollectorMetrics = collectorMetrics;
+        myAdmission = admission;
         manager.registerController("/assignInfoCollector.html", this);
     }
 
     @Nullable
     @Override
     protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
-        if (!isGet(request)) {
+        if (!isGet(request) && !isPost(request)) {
             throw new HttpRequestMethodNotSupportedException(request.getMethod());
         }
 
-        @Nullable SProject project = getProjectByExternalId(request.getParameter("projectExternalId"));
-        if (project == null) {
-            throw new NotFoundException("Project with specified externalProjectId not found");
-        } else if (!mySecurityContext.getAuthorityHolder().getPermissionsGrantedForProject(project.getProjectId()).contains(Permission.VIEW_PROJECT)) {
-            throw new IllegalAccessException("User doesn't have enough permissions. " + Permission.VIEW_PROJECT.getName() + " permission required.");
-        }
+        // checks the user can view the projects, the builds themselves are found by id
+        ProjectSelection.resolve(projectManager, mySecurityContext, request);
 
-        Map<Long, List<Long>> buildToTestsMap = new HashMap<>();
-
-        Arrays.stream(request.getParameter("ids").split(","))
-                .map(pair -> pair.split("_"))
-                .forEach(ids -> {
-                    long buildId = Long.parseLong(ids[0]);
-                    long testId = Long.parseLong(ids[1]);
-                    buildToTestsMap.putIfAbsent(buildId, new ArrayList<>());
-                    buildToTestsMap.get(buildId).add(testId);
-                });
-
-        List<BuildInfo> builds = new ArrayList<>();
-        List<TestInfo> testRunsWithResponsibilities = new ArrayList<>();
-        Set<String> projectIds = new HashSet<>();
-
-        server.getHistory().findEntries(buildToTestsMap.keySet()).stream()
-                .filter(build -> !build.isAgentLessBuild()) // filter composite builds
-                .forEach(finishedBuild -> {
-                    TestOutputCollector testOutputCollector = new TestOutputCollector(finishedBuild);
-
-                    BuildInfo buildInfo = new BuildInfo(finishedBuild);
-                    List<TestInfo> tests = new ArrayList<>();
-                    BuildStatistics buildStat = finishedBuild.getBuildStatistics(ALL_TESTS_NO_DETAILS);
-
-                    buildToTestsMap.get(finishedBuild.getBuildId()).stream()
-                            .map(buildStat::findTestByTestNameId)
-                            .filter(Objects::nonNull)
-                            .filter(testRun -> !testRun.getTest().getAllResponsibilities().isEmpty())
-                            .limit(Limits.TEST_LIMIT)
-                            .forEach(testRun -> {
-                                TestInfo testInfo = new TestInfo(testRun, testOutputCollector);
-                                testRunsWithResponsibilities.add(testInfo);
-                                tests.add(testInfo);
-                            });
-
-                    buildInfo.setTests(tests);
-                    builds.add(buildInfo);
-                    projectIds.add(finishedBuild.getProjectExternalId());
-                });
-
-        Map<Long, List<String>> auditResult = findInAudit(testRunsWithResponsibilities.stream()
-                        .map(TestInfo::getTestNameId)
-                        .collect(Collectors.toSet()),
-                projectIds.stream()
-                        .map(this::getProjectByExternalId)
-                        .collect(Collectors.toSet()));
-
-        testRunsWithResponsibilities.forEach(testRun -> {
-            testRun.setPreviousResponsible(auditResult.get(testRun.getTestNameId()));
-        });
-
-        sendResponse(response, builds);
-        return null;
-    }
+        try (RequestMetrics metrics = myCollectorMetrics.start("assignInfoCollector")) {
+            if (Boolean.parseBoolean(request.getParameter("timing"))) {
+                response = metrics.withTimingHeaders(response);
+            }
 
-    @NotNull
-    public Map<Long, List<String>> findInAudit(@NotNull final Set<Long> testNameIds, @NotNull Set<SProject> projects) {
-        AuditLogBuilder builder = auditLogProvider.getBuilder();
-        builder.setActionTypes(ActionType.TEST_MARK_AS_FIXED,
-                ActionType.TEST_INVESTIGATION_ASSIGN,
-                ActionType.TEST_INVESTIGATION_ASSIGN_STICKY);
-
-        Set<String> objectIds = new HashSet<>();
-        Set<String> projectIds = collectProjectsHierarchyIds(projects);
-        for (Long testNameId : testNameIds) {
-            for (String projectId : projectIds) {
-                objectIds.add(TestId.createOn(testNameId, projectId).asString());
+            BuildTestIds ids;
+            try (RequestMetrics.Timer ignored = metrics.start("readIds")) {
+                ids = BuildTestIds.read(request);
+            }
+            BuildInfoCollector.Options options = myBuildInfoCollector.createOptions(request);
+            String format = request.getParameter("format");
+            // the archive is already deflated
+            ResponseEncoding encoding = "columnar".equals(format) ? ResponseEncoding.IDENTITY : ResponseEncoding.select(request);
+
+            String eTag = computeETag(ids, options, format, Boolean.parseBoolean(request.getParameter("stream")), encoding);
+            response.setHeader("ETag", eTag);
+            response.setHeader("Cache-Control", "private, no-cache");
+            response.addHeader("Vary", "Accept-Encoding");
+            if (isGet(request) && matchesETag(request.getHeader("If-None-Match"), eTag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                metrics.count(RequestMetrics.NOT_MODIFIED, 1);
+                return null;
             }
-        }
 
-        builder.setObjectIds(objectIds);
-        List<AuditLogAction> lastActions = builder.getLogActions(-1);
-        Map<Long, List<String>> result = new HashMap<>();
-        for (AuditLogAction action : lastActions) {
-            for (ObjectWrapper obj : action.getObjects()) {
-                Object user = obj.getObject();
-                if (!(user instanceof User)) {
-                    continue;
+            try (CollectorAdmission.Permit permit = myAdmission.acquire(request, response, metrics)) {
+                if (permit == null) {
+                    return null;
                 }
 
-                TestId testId = TestId.fromString(action.getObjectId());
-                if (testId != null) {
-                    result.putIfAbsent(testId.getTestNameId(), new ArrayList<>());
-                    result.get(testId.getTestNameId()).add(((User) user).getExtendedName());
+                Iterator<BuildInfo> builds = myBuildInfoCollector.collect(ids, options, metrics);
+
+                if ("normalized".equals(format)) {
+                    sendNormalizedResponse(response, builds, encoding, metrics);
+                } else if ("columnar".equals(format)) {
+                    sendColumnarResponse(response, builds, metrics);
+                } else if (Boolean.parseBoolean(request.getParameter("stream"))) {
+                    streamResponse(response, builds, encoding, metrics);
+                } else {
+                    List<BuildInfo> buildInfos = new ArrayList<>();
+                    builds.forEachRemaining(buildInfos::add);
+                    sendResponse(response, buildInfos, encoding, metrics);
                 }
             }
         }
-        return result;
+        return null;
     }
 
-    @Nullable
-    private SProject getProjectByExternalId(@Nullable final String projectExternalId) throws AccessDeniedException {
-        if (projectExternalId == null) {
-            return null;
+    /**
+     * Strong ETag of the response: the pairs in the request order, the options and the server defaults behind them,
+     * the format of the response and its encoding. The builds are finished and cached as they are, so otherwise
+     * the response only changes with investigations, see {@link BuildInfoCollector#getContentVersion()}.
+     */
+    @NotNull
+    private String computeETag(@NotNull BuildTestIds ids,
+                               @NotNull BuildInfoCollector.Options options,
+                               @Nullable String format,
+                               boolean stream,
+                               @NotNull ResponseEncoding encoding) {
+        MessageDigest digest = createDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        for (int i = 0; i < ids.getBuildCount(); i++) {
+            digest.update(buffer.putLong(0, ids.getBuildId(i)).array());
+            for (long testId : ids.getTestIds(i)) {
+                digest.update(buffer.putLong(0, testId).array());
+            }
+            // separates the tests of consecutive builds
+            digest.update(buffer.putLong(0, -1).array());
         }
+        digest.update((options.getContentKey() + ";" + myBuildInfoCollector.getServerDefaultsKey()
+                + ";" + format + ";" + stream + ";" + encoding.getName()
+                + ";" + myBuildInfoCollector.getContentVersion()).getBytes(StandardCharsets.UTF_8));
+        return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest()) + "\"";
+    }
 
-        @Nullable SProject project = projectManager.findProjectByExternalId(projectExternalId); // throws AccessDeniedException if no rights
-        if (project == null) {
-            throw new NotFoundException("Project with specified externalProjectId not found");
+    @NotNull
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
+    }
 
-        return project;
+    private static boolean matchesETag(@Nullable String ifNoneMatch, @NotNull String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            // If-None-Match uses the weak comparison
+            if (trimmed.equals("*") || trimmed.equals(eTag) || trimmed.equals("W/" + eTag)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void sendResponse(@NotNull HttpServletResponse servletResponse,
-                              @NotNull List<BuildInfo> responsibilities) throws IOException {
-        try (OutputStreamWriter writer = new OutputStreamWriter(servletResponse.getOutputStream(), StandardCharsets.UTF_8)) {
-            servletResponse.setContentType("application/json");
+                              @NotNull List<BuildInfo> responsibilities,
+                              @NotNull ResponseEncoding encoding,
+                              @NotNull RequestMetrics metrics) throws IOException {
+        servletResponse.setContentType("application/json");
+        try (OutputStreamWriter writer = new OutputStreamWriter(encoding.open(servletResponse, metrics), StandardCharsets.UTF_8);
+             RequestMetrics.Timer ignored = metrics.start("serialize")) {
             writer.write(myGson.toJson(responsibilities));
         }
     }
 
-    @NotNull
-    private Set<String> collectProjectHierarchyIds(@NotNull SProject project) {
-        Set<String> result = new HashSet<>();
-        do {
-            result.add(project.getProjectId());
-            project = project.getParentProject();
-        } while (project != null);
-        return result;
+    private void streamResponse(@NotNull HttpServletResponse servletResponse,
+                                @NotNull Iterator<BuildInfo> builds,
+                                @NotNull ResponseEncoding encoding,
+                                @NotNull RequestMetrics metrics) throws IOException {
+        servletResponse.setContentType("application/json");
+        try (JsonArrayWriter writer = new JsonArrayWriter(myCompactGson,
+                new OutputStreamWriter(encoding.open(servletResponse, metrics), StandardCharsets.UTF_8))) {
+            while (builds.hasNext()) {
+                BuildInfo build = builds.next();
+                try (RequestMetrics.Timer ignored = metrics.start("serialize")) {
+                    writer.write(build);
+                    writer.flush();
+                }
+            }
+            writer.finish();
+        }
     }
 
-    @NotNull
-    private Set<String> collectProjectsHierarchyIds(@NotNull Set<SProject> projects) {
-        Set<String> result = new HashSet<>();
-        for (SProject project : projects) {
-            result.addAll(collectProjectHierarchyIds(project));
+    private void sendNormalizedResponse(@NotNull HttpServletResponse servletResponse,
+                                        @NotNull Iterator<BuildInfo> builds,
+                                        @NotNull ResponseEncoding encoding,
+                                        @NotNull RequestMetrics metrics) throws IOException {
+        NormalizedResponse normalizedResponse = new NormalizedResponse(myCompactGson);
+        while (builds.hasNext()) {
+            BuildInfo build = builds.next();
+            try (RequestMetrics.Timer ignored = metrics.start("normalize")) {
+                normalizedResponse.add(build);
+            }
+        }
+
+        servletResponse.setContentType("application/json");
+        try (OutputStreamWriter writer = new OutputStreamWriter(encoding.open(servletResponse, metrics), StandardCharsets.UTF_8);
+             RequestMetrics.Timer ignored = metrics.start("serialize")) {
+            normalizedResponse.write(writer);
+        }
+    }
+
+    private void sendColumnarResponse(@NotNull HttpServletResponse servletResponse,
+                                      @NotNull Iterator<BuildInfo> builds,
+                                      @NotNull RequestMetrics metrics) throws IOException {
+        ColumnarExport columnarExport = new ColumnarExport();
+        while (builds.hasNext()) {
+            BuildInfo build = builds.next();
+            try (RequestMetrics.Timer ignored = metrics.start("columnarize")) {
+                columnarExport.add(build);
+            }
+        }
+
+        servletResponse.setContentType(ColumnarExport.CONTENT_TYPE);
+        servletResponse.setHeader("Content-Disposition", "attachment; filename=\"builds_info.npz\"");
+        try (OutputStream out = metrics.countBytes(servletResponse.getOutputStream());
+             RequestMetrics.Timer ignored = metrics.start("serialize")) {
+            columnarExport.write(out);
         }
-        return result;
     }
 }
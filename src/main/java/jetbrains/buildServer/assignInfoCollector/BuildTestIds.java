@@ -0,0 +1,229 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Test ids grouped by build id, kept in primitive arrays in the order the builds were first seen.
+ * Parses the {@code ids} query parameter as well as request bodies:
+ * <ul>
+ * <li>text: {@code buildId_testId} pairs separated by new lines or commas</li>
+ * <li>binary: pairs of zigzag varints, each value encoded as a delta from the previous build id or test id</li>
+ * </ul>
+ */
+class BuildTestIds {
+    static final String BINARY_CONTENT_TYPE = "application/octet-stream";
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // open addressing build id -> group index
+    private long[] mySlotKeys = new long[INITIAL_CAPACITY];
+    private int[] mySlotGroups = new int[INITIAL_CAPACITY];
+    private boolean[] mySlotUsed = new boolean[INITIAL_CAPACITY];
+
+    private long[] myBuildIds = new long[INITIAL_CAPACITY];
+    private long[][] myTestIds = new long[INITIAL_CAPACITY][];
+    private int[] myTestCounts = new int[INITIAL_CAPACITY];
+    private int myBuildCount;
+
+    /**
+     * GET requests pass the pairs in the {@code ids} parameter, POST requests in the body,
+     * either as text or as binary varints; a form body is read as the {@code ids} parameter.
+     */
+    @NotNull
+    static BuildTestIds read(@NotNull HttpServletRequest request) throws IOException {
+        String contentType = request.getContentType();
+        if ("POST".equals(request.getMethod()) && contentType != null && !contentType.startsWith("application/x-www-form-urlencoded")) {
+            return parse(contentType, request.getInputStream());
+        }
+
+        String ids = request.getParameter("ids");
+        if (ids == null) {
+            throw new IllegalArgumentException("ids parameter is required");
+        }
+        return parseText(ids);
+    }
+
+    @NotNull
+    static BuildTestIds parseText(@NotNull String ids) {
+        BuildTestIds result = new BuildTestIds();
+        for (String pair : ids.split("[,\\n]")) {
+            result.addPair(pair);
+        }
+        return result;
+    }
+
+    @NotNull
+    static BuildTestIds parseText(@NotNull Reader reader) throws IOException {
+        BuildTestIds result = new BuildTestIds();
+        StringBuilder pair = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == ',' || c == '\n') {
+                result.addPair(pair);
+                pair.setLength(0);
+            } else {
+                pair.append((char) c);
+            }
+        }
+        result.addPair(pair);
+        return result;
+    }
+
+    @NotNull
+    static BuildTestIds parseBinary(@NotNull InputStream input) throws IOException {
+        BuildTestIds result = new BuildTestIds();
+        InputStream in = new BufferedInputStream(input);
+        long buildId = 0;
+        long testId = 0;
+        int first;
+        while ((first = in.read()) != -1) {
+            buildId += readVarLong(in, first);
+            testId += readVarLong(in, in.read());
+            result.add(buildId, testId);
+        }
+        return result;
+    }
+
+    @NotNull
+    static BuildTestIds parse(@NotNull String contentType, @NotNull InputStream input) throws IOException {
+        if (contentType.startsWith(BINARY_CONTENT_TYPE)) {
+            return parseBinary(input);
+        }
+        return parseText(new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII)));
+    }
+
+    void add(long buildId, long testId) {
+        int group = findOrAddGroup(buildId);
+        long[] tests = myTestIds[group];
+        int count = myTestCounts[group];
+        if (count == tests.length) {
+            tests = myTestIds[group] = Arrays.copyOf(tests, tests.length * 2);
+        }
+        tests[count] = testId;
+        myTestCounts[group] = count + 1;
+    }
+
+    int getBuildCount() {
+        return myBuildCount;
+    }
+
+    long getBuildId(int index) {
+        return myBuildIds[index];
+    }
+
+    @NotNull
+    long[] getTestIds(int index) {
+        return Arrays.copyOf(myTestIds[index], myTestCounts[index]);
+    }
+
+    @NotNull
+    static BuildTestIds fromMap(@NotNull Map<Long, List<Long>> buildToTestsMap) {
+        BuildTestIds result = new BuildTestIds();
+        buildToTestsMap.forEach((buildId, testIds) -> testIds.forEach(testId -> result.add(buildId, testId)));
+        return result;
+    }
+
+    /**
+     * @return boxed copy, used where the ids are stored as JSON
+     */
+    @NotNull
+    Map<Long, List<Long>> toMap() {
+        Map<Long, List<Long>> result = new LinkedHashMap<>();
+        for (int i = 0; i < myBuildCount; i++) {
+            List<Long> tests = new ArrayList<>(myTestCounts[i]);
+            for (int j = 0; j < myTestCounts[i]; j++) {
+                tests.add(myTestIds[i][j]);
+            }
+            result.put(myBuildIds[i], tests);
+        }
+        return result;
+    }
+
+    private void addPair(@NotNull CharSequence pair) {
+        String trimmed = pair.toString().trim();
+        if (trimmed.isEmpty()) {
+            return;
+        }
+
+        int separator = trimmed.indexOf('_');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected buildId_testId pair, got '" + trimmed + "'");
+        }
+        add(Long.parseLong(trimmed.substring(0, separator)), Long.parseLong(trimmed.substring(separator + 1)));
+    }
+
+    private int findOrAddGroup(long buildId) {
+        int slot = findSlot(buildId);
+        if (mySlotUsed[slot]) {
+            return mySlotGroups[slot];
+        }
+
+        if (myBuildCount == myBuildIds.length) {
+            myBuildIds = Arrays.copyOf(myBuildIds, myBuildCount * 2);
+            myTestIds = Arrays.copyOf(myTestIds, myBuildCount * 2);
+            myTestCounts = Arrays.copyOf(myTestCounts, myBuildCount * 2);
+        }
+        int group = myBuildCount++;
+        myBuildIds[group] = buildId;
+        myTestIds[group] = new long[4];
+
+        mySlotUsed[slot] = true;
+        mySlotKeys[slot] = buildId;
+        mySlotGroups[slot] = group;
+        if (myBuildCount * 2 > mySlotKeys.length) {
+            rehash();
+        }
+        return group;
+    }
+
+    private int findSlot(long buildId) {
+        int mask = mySlotKeys.length - 1;
+        int slot = Long.hashCode(buildId * 0x9E3779B97F4A7C15L) & mask;
+        while (mySlotUsed[slot] && mySlotKeys[slot] != buildId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int capacity = mySlotKeys.length * 2;
+        mySlotKeys = new long[capacity];
+        mySlotGroups = new int[capacity];
+        mySlotUsed = new boolean[capacity];
+        for (int group = 0; group < myBuildCount; group++) {
+            int slot = findSlot(myBuildIds[group]);
+            mySlotUsed[slot] = true;
+            mySlotKeys[slot] = myBuildIds[group];
+            mySlotGroups[slot] = group;
+        }
+    }
+
+    /**
+     * @param first first byte of the value, already read from the stream
+     * @return decoded zigzag varint
+     */
+    private static long readVarLong(@NotNull InputStream in, int first) throws IOException {
+        long raw = 0;
+        int shift = 0;
+        int b = first;
+        while (true) {
+            if (b == -1) {
+                throw new EOFException("Unexpected end of binary ids");
+            }
+            if (shift >= 64) {
+                throw new IOException("Malformed varint in binary ids");
+            }
+            raw |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (raw >>> 1) ^ -(raw & 1);
+            }
+            shift += 7;
+            b = in.read();
+        }
+    }
+}
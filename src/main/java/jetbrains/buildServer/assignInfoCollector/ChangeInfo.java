@@ -14,10 +14,10 @@ class ChangeInfo {
     private final Date vcsDate;
     private final String userName;
 
-    public ChangeInfo (SVcsModification modification) {
+    public ChangeInfo (SVcsModification modification, int filesChangedLimit) {
         this.filesChange = modification.getChangeCount();
         this.changesNames = modification.getChanges().stream()
-                .limit(Limits.FILES_CHANGED_LIMIT)
+                .limit(filesChangedLimit)
                 .map(VcsChangeInfo::getFileName)
                 .collect(Collectors.toList());
         this.description = modification.getDescription();
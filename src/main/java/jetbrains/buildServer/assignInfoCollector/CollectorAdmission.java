@@ -0,0 +1,202 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.users.User;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Admission of heavy collector requests, shared by the controllers. At most {@code admission.maxConcurrent}
+ * requests run at once, at most {@code admission.maxQueued} wait for up to {@code admission.maxWaitMs};
+ * other requests are rejected with {@code 429 Too Many Requests} and a {@code Retry-After} estimate.
+ * A freed slot goes to the waiting request of the user with the fewest running requests, earliest first,
+ * and a full queue makes room for a user with fewer requests than another one,
+ * so one user starting many requests doesn't starve the others.
+ */
+public class CollectorAdmission {
+    private static final String MAX_CONCURRENT_PROPERTY = "teamcity.assignInfoCollector.admission.maxConcurrent";
+    private static final String MAX_QUEUED_PROPERTY = "teamcity.assignInfoCollector.admission.maxQueued";
+    private static final String MAX_WAIT_PROPERTY = "teamcity.assignInfoCollector.admission.maxWaitMs";
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private final SecurityContext mySecurityContext;
+
+    private final Object myLock = new Object();
+    // guarded by myLock
+    private final List<Ticket> myWaiting = new ArrayList<>();
+    private final Map<String, Integer> myRunningByUser = new HashMap<>();
+    private int myRunning;
+    // average time a request holds its slot, for Retry-After
+    private double myAverageHoldMillis = 1000;
+
+    public CollectorAdmission(@NotNull final SecurityContext securityContext) {
+        mySecurityContext = securityContext;
+    }
+
+    /**
+     * Waits for a slot for the request. A rejected request is answered here and counted as {@code rejected}.
+     *
+     * @return the slot to close when the request completes, or null if the request was rejected
+     */
+    @Nullable
+    Permit acquire(@NotNull HttpServletRequest request,
+                   @NotNull HttpServletResponse response,
+                   @NotNull RequestMetrics metrics) throws InterruptedException, IOException {
+        String user = getUserKey(request);
+        int maxConcurrent = Math.max(1, TeamCityProperties.getInteger(MAX_CONCURRENT_PROPERTY, 4));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TeamCityProperties.getLong(MAX_WAIT_PROPERTY, 30000));
+
+        long retryAfterSeconds;
+        try (RequestMetrics.Timer ignored = metrics.start("admission")) {
+            synchronized (myLock) {
+                if (myRunning >= maxConcurrent && myWaiting.size() >= TeamCityProperties.getInteger(MAX_QUEUED_PROPERTY, 20)
+                        && !evictForUser(user)) {
+                    retryAfterSeconds = estimateRetryAfterSeconds(maxConcurrent);
+                } else {
+                    Ticket ticket = new Ticket(user);
+                    myWaiting.add(ticket);
+                    try {
+                        while (!ticket.evicted && (myRunning >= maxConcurrent || selectNext() != ticket)) {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                break;
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(myLock, remaining);
+                        }
+                        if (!ticket.evicted && myRunning < maxConcurrent && selectNext() == ticket) {
+                            myRunning++;
+                            myRunningByUser.merge(user, 1, Integer::sum);
+                            return new Permit(user);
+                        }
+                        retryAfterSeconds = estimateRetryAfterSeconds(maxConcurrent);
+                    } finally {
+                        myWaiting.remove(ticket);
+                        // the next ticket may be admitted now
+                        myLock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        metrics.count(RequestMetrics.REJECTED, 1);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.sendError(SC_TOO_MANY_REQUESTS, "Too many collector requests, retry in " + retryAfterSeconds + " seconds");
+        return null;
+    }
+
+    /**
+     * @return the waiting ticket of the user with the fewest running requests, the earliest one on a tie
+     */
+    @Nullable
+    private Ticket selectNext() {
+        Ticket result = null;
+        int resultRunning = Integer.MAX_VALUE;
+        for (Ticket ticket : myWaiting) {
+            int running = myRunningByUser.getOrDefault(ticket.user, 0);
+            if (running < resultRunning) {
+                result = ticket;
+                resultRunning = running;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes room in the full queue for the user if another user has more requests running and waiting:
+     * the latest waiting request of that user is rejected.
+     *
+     * @return true if a request was evicted
+     */
+    private boolean evictForUser(@NotNull String user) {
+        Map<String, Integer> load = new HashMap<>(myRunningByUser);
+        for (Ticket ticket : myWaiting) {
+            load.merge(ticket.user, 1, Integer::sum);
+        }
+
+        Ticket evicted = null;
+        int evictedLoad = load.getOrDefault(user, 0) + 1;
+        for (Ticket ticket : myWaiting) {
+            if (load.get(ticket.user) > evictedLoad || evicted != null && ticket.user.equals(evicted.user)) {
+                evicted = ticket;
+                evictedLoad = load.get(ticket.user);
+            }
+        }
+        if (evicted == null) {
+            return false;
+        }
+
+        evicted.evicted = true;
+        myWaiting.remove(evicted);
+        myLock.notifyAll();
+        return true;
+    }
+
+    /**
+     * @return number of requests waiting for a slot
+     */
+    int getWaitingCount() {
+        synchronized (myLock) {
+            return myWaiting.size();
+        }
+    }
+
+    private long estimateRetryAfterSeconds(int maxConcurrent) {
+        double millis = myAverageHoldMillis * (myWaiting.size() + 1) / maxConcurrent;
+        return Math.max(1, (long) Math.ceil(millis / 1000));
+    }
+
+    @NotNull
+    private String getUserKey(@NotNull HttpServletRequest request) {
+        @Nullable User user = mySecurityContext.getAuthorityHolder().getAssociatedUser();
+        return user != null ? "user:" + user.getId() : "address:" + request.getRemoteAddr();
+    }
+
+    private static class Ticket {
+        final String user;
+        // guarded by myLock
+        boolean evicted;
+
+        Ticket(String user) {
+            this.user = user;
+        }
+    }
+
+    /**
+     * A running request, closing it frees the slot.
+     */
+    class Permit implements AutoCloseable {
+        private final String myUser;
+        private final long myStartNanos = System.nanoTime();
+        private final AtomicBoolean myClosed = new AtomicBoolean();
+
+        private Permit(@NotNull String user) {
+            myUser = user;
+        }
+
+        @Override
+        public void close() {
+            if (!myClosed.compareAndSet(false, true)) {
+                return;
+            }
+
+            double holdMillis = (System.nanoTime() - myStartNanos) / 1e6;
+            synchronized (myLock) {
+                myRunning--;
+                myRunningByUser.computeIfPresent(myUser, (user, running) -> running > 1 ? running - 1 : null);
+                myAverageHoldMillis = 0.9 * myAverageHoldMillis + 0.1 * holdMillis;
+                myLock.notifyAll();
+            }
+        }
+    }
+}
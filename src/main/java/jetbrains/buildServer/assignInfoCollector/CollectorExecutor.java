@@ -0,0 +1,129 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.SecurityContextEx;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Worker pool shared by the collector controllers. The pool is bounded by
+ * {@code teamcity.assignInfoCollector.threads}, every request is additionally limited by its own parallelism,
+ * so a single collector call cannot occupy all workers. Tasks run with the permissions of the caller.
+ */
+public class CollectorExecutor implements DisposableBean {
+    private static final String THREADS_PROPERTY = "teamcity.assignInfoCollector.threads";
+    private static final String REQUEST_PARALLELISM_PROPERTY = "teamcity.assignInfoCollector.requestParallelism";
+
+    private final int myPoolSize;
+    private final ExecutorService myExecutor;
+    private final SecurityContextEx mySecurityContext;
+
+    public CollectorExecutor(@NotNull final SecurityContextEx securityContext) {
+        mySecurityContext = securityContext;
+        myPoolSize = Math.max(1, TeamCityProperties.getInteger(THREADS_PROPERTY,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+        myExecutor = Executors.newFixedThreadPool(myPoolSize, new NamedThreadFactory("AssignInfoCollector"));
+    }
+
+    /**
+     * @param requested parallelism asked by the client, or null to use the default
+     * @return number of builds a single request may process at once
+     */
+    int getRequestParallelism(@Nullable String requested) {
+        int maxParallelism = Math.max(1, Math.min(myPoolSize,
+                TeamCityProperties.getInteger(REQUEST_PARALLELISM_PROPERTY, myPoolSize)));
+        if (requested == null) {
+            return maxParallelism;
+        }
+        return Math.max(1, Math.min(maxParallelism, Integer.parseInt(requested)));
+    }
+
+    /**
+     * Applies the task to the items on the worker pool, keeping at most {@code parallelism} tasks in flight.
+     * Results are returned in the order of the items. Tasks run as the user calling this method,
+     * pool threads don't have a security context of their own.
+     */
+    @NotNull
+    <T, R> Iterator<R> mapOrdered(@NotNull Iterable<T> items, int parallelism, @NotNull Function<T, R> task) {
+        AuthorityHolder authorityHolder = mySecurityContext.getAuthorityHolder();
+        Iterator<T> source = items.iterator();
+        Deque<Future<R>> inFlight = new ArrayDeque<>();
+
+        return new Iterator<R>() {
+            @Override
+            public boolean hasNext() {
+                fill();
+                return !inFlight.isEmpty();
+            }
+
+            @Override
+            public R next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                Future<R> head = inFlight.poll();
+                try {
+                    return head.get();
+                } catch (InterruptedException e) {
+                    cancelAll();
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for collector task", e);
+                } catch (ExecutionException e) {
+                    cancelAll();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+
+            private void fill() {
+                while (inFlight.size() < parallelism && source.hasNext()) {
+                    T item = source.next();
+                    inFlight.add(myExecutor.submit(() -> runAs(authorityHolder, () -> task.apply(item))));
+                }
+            }
+
+            private void cancelAll() {
+                for (Future<R> future : inFlight) {
+                    future.cancel(true);
+                }
+                inFlight.clear();
+            }
+        };
+    }
+
+    private <R> R runAs(@NotNull AuthorityHolder authorityHolder, @NotNull Supplier<R> action) throws Exception {
+        try {
+            return mySecurityContext.runAs(authorityHolder, action::get);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        myExecutor.shutdownNow();
+    }
+}
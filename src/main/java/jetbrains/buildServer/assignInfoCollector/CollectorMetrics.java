@@ -0,0 +1,154 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Totals of the per-request {@link RequestMetrics} since the server start, grouped by endpoint.
+ * Exposed by {@link CollectorMetricsController}.
+ */
+public class CollectorMetrics {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // endpoint -> stage -> stats
+    private final Map<String, Map<String, StageStats>> myStages = new ConcurrentHashMap<>();
+    // endpoint -> counter -> value
+    private final Map<String, Map<String, LongAdder>> myCounters = new ConcurrentHashMap<>();
+
+    @NotNull
+    RequestMetrics start(@NotNull String endpoint) {
+        return new RequestMetrics(this, endpoint);
+    }
+
+    void publish(@NotNull String endpoint,
+                 @NotNull Map<String, StageStats> stages,
+                 @NotNull Map<String, LongAdder> counters) {
+        Map<String, StageStats> endpointStages = myStages.computeIfAbsent(endpoint, e -> new ConcurrentHashMap<>());
+        stages.forEach((stage, stats) -> endpointStages.computeIfAbsent(stage, s -> new StageStats()).merge(stats));
+
+        Map<String, LongAdder> endpointCounters = myCounters.computeIfAbsent(endpoint, e -> new ConcurrentHashMap<>());
+        counters.forEach((counter, value) -> endpointCounters.computeIfAbsent(counter, c -> new LongAdder()).add(value.sum()));
+    }
+
+    /**
+     * @return endpoint -> {stages, counters}, ordered by name
+     */
+    @NotNull
+    Map<String, Object> getSnapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        for (String endpoint : getEndpoints()) {
+            Map<String, Object> stages = new TreeMap<>();
+            myStages.getOrDefault(endpoint, new ConcurrentHashMap<>()).forEach((stage, stats) -> stages.put(stage, stats.toMap()));
+            Map<String, Long> counters = new TreeMap<>();
+            myCounters.getOrDefault(endpoint, new ConcurrentHashMap<>()).forEach((counter, value) -> counters.put(counter, value.sum()));
+
+            Map<String, Object> endpointMetrics = new TreeMap<>();
+            endpointMetrics.put("stages", stages);
+            endpointMetrics.put("counters", counters);
+            result.put(endpoint, endpointMetrics);
+        }
+        return result;
+    }
+
+    /**
+     * @return metrics in the Prometheus text exposition format
+     */
+    @NotNull
+    String toPrometheusText() {
+        StringBuilder result = new StringBuilder();
+        result.append("# TYPE assign_info_collector_stage_seconds_total counter\n");
+        forEachStage((labels, stats) -> appendSample(result, "assign_info_collector_stage_seconds_total", labels, stats.totalNanos.sum() / 1e9));
+        result.append("# TYPE assign_info_collector_stage_max_seconds gauge\n");
+        forEachStage((labels, stats) -> appendSample(result, "assign_info_collector_stage_max_seconds", labels, stats.maxNanos.get() / 1e9));
+        result.append("# TYPE assign_info_collector_stage_calls_total counter\n");
+        forEachStage((labels, stats) -> appendSample(result, "assign_info_collector_stage_calls_total", labels, stats.count.sum()));
+        result.append("# TYPE assign_info_collector_stage_allocated_bytes_total counter\n");
+        forEachStage((labels, stats) -> appendSample(result, "assign_info_collector_stage_allocated_bytes_total", labels, stats.allocatedBytes.sum()));
+        result.append("# TYPE assign_info_collector_count_total counter\n");
+        for (String endpoint : getEndpoints()) {
+            new TreeMap<>(myCounters.getOrDefault(endpoint, new ConcurrentHashMap<>())).forEach((counter, value) ->
+                    appendSample(result, "assign_info_collector_count_total",
+                            "endpoint=\"" + endpoint + "\",counter=\"" + counter + "\"", value.sum()));
+        }
+        return result.toString();
+    }
+
+    private void forEachStage(@NotNull BiConsumer<String, StageStats> consumer) {
+        for (String endpoint : getEndpoints()) {
+            new TreeMap<>(myStages.getOrDefault(endpoint, new ConcurrentHashMap<>())).forEach((stage, stats) ->
+                    consumer.accept("endpoint=\"" + endpoint + "\",stage=\"" + stage + "\"", stats));
+        }
+    }
+
+    @NotNull
+    private Set<String> getEndpoints() {
+        Set<String> endpoints = new TreeSet<>(myStages.keySet());
+        endpoints.addAll(myCounters.keySet());
+        return endpoints;
+    }
+
+    private static void appendSample(@NotNull StringBuilder result, @NotNull String name, @NotNull String labels, double value) {
+        result.append(name).append('{').append(labels).append("} ");
+        if (value == Math.rint(value)) {
+            result.append((long) value);
+        } else {
+            result.append(value);
+        }
+        result.append('\n');
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, 0 if the JVM doesn't measure it
+     */
+    static long getAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    static class StageStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder allocatedBytes = new LongAdder();
+
+        void add(long nanos, long allocated) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            allocatedBytes.add(allocated);
+        }
+
+        void merge(@NotNull StageStats other) {
+            count.add(other.count.sum());
+            totalNanos.add(other.totalNanos.sum());
+            maxNanos.accumulateAndGet(other.maxNanos.get(), Math::max);
+            allocatedBytes.add(other.allocatedBytes.sum());
+        }
+
+        @NotNull
+        Map<String, Object> toMap() {
+            Map<String, Object> result = new TreeMap<>();
+            result.put("count", count.sum());
+            result.put("totalMs", TimeUnit.NANOSECONDS.toMillis(totalNanos.sum()));
+            result.put("maxMs", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+            result.put("allocatedBytes", allocatedBytes.sum());
+            return result;
+        }
+    }
+}
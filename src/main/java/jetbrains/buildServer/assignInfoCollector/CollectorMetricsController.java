@@ -0,0 +1,57 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.HttpRequestMethodNotSupportedException;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Diagnostics endpoint with the {@link CollectorMetrics} totals, as JSON or with {@code format=prometheus}
+ * in the Prometheus text format.
+ */
+public class CollectorMetricsController extends BaseController {
+    private final SecurityContext mySecurityContext;
+    private final CollectorMetrics myCollectorMetrics;
+
+    private final Gson myGson = new GsonBuilder().setPrettyPrinting().create();
+
+    public CollectorMetricsController(@NotNull final SBuildServer server,
+                                      @NotNull final WebControllerManager manager,
+                                      @NotNull final SecurityContext securityContext,
+                                      @NotNull final CollectorMetrics collectorMetrics) {
+        super(server);
+        mySecurityContext = securityContext;
+        myCollectorMetrics = collectorMetrics;
+        manager.registerController("/assignInfoCollectorMetrics.html", this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+        if (!isGet(request)) {
+            throw new HttpRequestMethodNotSupportedException(request.getMethod());
+        }
+        if (!mySecurityContext.getAuthorityHolder().isPermissionGrantedGlobally(Permission.VIEW_SERVER_SETTINGS)) {
+            throw new IllegalAccessException("User doesn't have enough permissions. " + Permission.VIEW_SERVER_SETTINGS.getName() + " permission required.");
+        }
+
+        boolean prometheus = "prometheus".equals(request.getParameter("format"));
+        response.setContentType(prometheus ? "text/plain; version=0.0.4" : "application/json");
+        try (OutputStreamWriter writer = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8)) {
+            writer.write(prometheus ? myCollectorMetrics.toPrometheusText() : myGson.toJson(myCollectorMetrics.getSnapshot()));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,230 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * {@code format=columnar} response: one row per test with previous responsibles, build fields repeated for each
+ * of its tests, written column by column as a compressed numpy archive ({@code .npz}).
+ * <ul>
+ * <li>integer columns are {@code int64} arrays, -1 for missing values</li>
+ * <li>{@code clientDate} is a {@code datetime64[ms]} array</li>
+ * <li>boolean columns are {@code int8} arrays: 1 for true, 0 for false, -1 for missing values</li>
+ * <li>string columns are dictionary encoded: {@code <column>} holds {@code int32} codes, -1 for missing values,
+ * the distinct values are UTF-8 bytes in {@code <column>.data} split by {@code <column>.offsets}</li>
+ * <li>list columns ({@code committers}, {@code changes}, {@code reasons}, {@code previousResponsible})
+ * are dictionary encoded JSON strings</li>
+ * </ul>
+ */
+class ColumnarExport {
+    static final String CONTENT_TYPE = "application/octet-stream";
+
+    private static final long MISSING_LONG = -1;
+    private static final byte MISSING_BOOLEAN = -1;
+    private static final long NOT_A_TIME = Long.MIN_VALUE;
+
+    private final Gson myGson = new GsonBuilder()
+            .registerTypeAdapter(Date.class, (JsonSerializer<Date>) (date, type, context) -> new JsonPrimitive(date.getTime()))
+            .create();
+
+    // same columns as all_keys in scripts/data_loader.py
+    private final Map<String, Column> myColumns = new LinkedHashMap<>();
+
+    ColumnarExport() {
+        addColumn("buildId", new LongColumn("<i8", MISSING_LONG));
+        addColumn("clientDate", new LongColumn("<M8[ms]", NOT_A_TIME));
+        addColumn("committers", new StringColumn());
+        addColumn("changeCount", new LongColumn("<i8", MISSING_LONG));
+        addColumn("comment", new StringColumn());
+        addColumn("triggeredBy", new StringColumn());
+        addColumn("description", new StringColumn());
+        addColumn("isDefaultBranch", new BooleanColumn());
+        addColumn("branchName", new StringColumn());
+        addColumn("changes", new StringColumn());
+        addColumn("reasons", new StringColumn());
+        addColumn("testCount", new LongColumn("<i8", MISSING_LONG));
+        addColumn("testRunId", new LongColumn("<i8", MISSING_LONG));
+        addColumn("testNameId", new LongColumn("<i8", MISSING_LONG));
+        addColumn("stacktrace", new StringColumn());
+        addColumn("className", new StringColumn());
+        addColumn("testMethod", new StringColumn());
+        addColumn("testClass", new StringColumn());
+        addColumn("testSuite", new StringColumn());
+        addColumn("duration", new LongColumn("<i8", MISSING_LONG));
+        addColumn("orderId", new LongColumn("<i8", MISSING_LONG));
+        addColumn("isFixed", new BooleanColumn());
+        addColumn("previousResponsible", new StringColumn());
+    }
+
+    void add(@NotNull BuildInfo buildInfo) {
+        JsonObject build = myGson.toJsonTree(buildInfo).getAsJsonObject();
+        JsonElement tests = build.remove("tests");
+        if (tests == null || !tests.isJsonArray()) {
+            return;
+        }
+
+        for (JsonElement test : tests.getAsJsonArray()) {
+            JsonObject testObject = test.getAsJsonObject();
+            if (!testObject.has("previousResponsible")) {
+                continue;
+            }
+
+            for (Map.Entry<String, Column> column : myColumns.entrySet()) {
+                JsonElement value = testObject.has(column.getKey()) ? testObject.get(column.getKey()) : build.get(column.getKey());
+                column.getValue().add(value == null || value.isJsonNull() ? null : value);
+            }
+        }
+    }
+
+    void write(@NotNull OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setMethod(ZipOutputStream.DEFLATED);
+        for (Map.Entry<String, Column> column : myColumns.entrySet()) {
+            column.getValue().write(zip, column.getKey());
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    private void addColumn(@NotNull String name, @NotNull Column column) {
+        myColumns.put(name, column);
+    }
+
+    /**
+     * Writes a one-dimensional array in the numpy {@code .npy} 1.0 format.
+     */
+    private static void writeNpy(@NotNull ZipOutputStream zip,
+                                 @NotNull String name,
+                                 @NotNull String descr,
+                                 int length,
+                                 @NotNull byte[] data) throws IOException {
+        StringBuilder header = new StringBuilder()
+                .append("{'descr': '").append(descr).append("', 'fortran_order': False, 'shape': (").append(length).append(",), }");
+        // magic, version and header length take 10 bytes, the data starts at a multiple of 64
+        while ((10 + header.length() + 1) % 64 != 0) {
+            header.append(' ');
+        }
+        header.append('\n');
+
+        zip.putNextEntry(new ZipEntry(name + ".npy"));
+        zip.write(new byte[]{(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0});
+        zip.write(new byte[]{(byte) (header.length() & 0xFF), (byte) (header.length() >> 8)});
+        zip.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    @NotNull
+    private static byte[] toBytes(@NotNull long[] values, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < length; i++) {
+            buffer.putLong(values[i]);
+        }
+        return buffer.array();
+    }
+
+    interface Column {
+        void add(@Nullable JsonElement value);
+
+        void write(@NotNull ZipOutputStream zip, @NotNull String name) throws IOException;
+    }
+
+    private static class LongColumn implements Column {
+        private final String myDescr;
+        private final long myMissing;
+        private long[] myValues = new long[64];
+        private int mySize;
+
+        LongColumn(@NotNull String descr, long missing) {
+            myDescr = descr;
+            myMissing = missing;
+        }
+
+        @Override
+        public void add(@Nullable JsonElement value) {
+            if (mySize == myValues.length) {
+                myValues = Arrays.copyOf(myValues, mySize * 2);
+            }
+            myValues[mySize++] = value == null ? myMissing : value.getAsLong();
+        }
+
+        @Override
+        public void write(@NotNull ZipOutputStream zip, @NotNull String name) throws IOException {
+            writeNpy(zip, name, myDescr, mySize, toBytes(myValues, mySize));
+        }
+    }
+
+    static class BooleanColumn implements Column {
+        private byte[] myValues = new byte[64];
+        private int mySize;
+
+        @Override
+        public void add(@Nullable JsonElement value) {
+            if (mySize == myValues.length) {
+                myValues = Arrays.copyOf(myValues, mySize * 2);
+            }
+            myValues[mySize++] = value == null ? MISSING_BOOLEAN : (byte) (value.getAsBoolean() ? 1 : 0);
+        }
+
+        @Override
+        public void write(@NotNull ZipOutputStream zip, @NotNull String name) throws IOException {
+            writeNpy(zip, name, "|i1", mySize, Arrays.copyOf(myValues, mySize));
+        }
+    }
+
+    private static class StringColumn implements Column {
+        private final Map<String, Integer> myDictionary = new LinkedHashMap<>();
+        private int[] myCodes = new int[64];
+        private int mySize;
+
+        @Override
+        public void add(@Nullable JsonElement value) {
+            if (mySize == myCodes.length) {
+                myCodes = Arrays.copyOf(myCodes, mySize * 2);
+            }
+
+            if (value == null) {
+                myCodes[mySize++] = -1;
+                return;
+            }
+            String string = value.isJsonPrimitive() ? value.getAsString() : value.toString();
+            myCodes[mySize++] = myDictionary.computeIfAbsent(string, s -> myDictionary.size());
+        }
+
+        @Override
+        public void write(@NotNull ZipOutputStream zip, @NotNull String name) throws IOException {
+            ByteBuffer codes = ByteBuffer.allocate(mySize * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < mySize; i++) {
+                codes.putInt(myCodes[i]);
+            }
+            writeNpy(zip, name, "<i4", mySize, codes.array());
+
+            long[] offsets = new long[myDictionary.size() + 1];
+            List<byte[]> values = new ArrayList<>(myDictionary.size());
+            int index = 0;
+            for (String value : myDictionary.keySet()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                values.add(bytes);
+                offsets[index + 1] = offsets[index] + bytes.length;
+                index++;
+            }
+
+            byte[] data = new byte[(int) offsets[offsets.length - 1]];
+            for (int i = 0; i < values.size(); i++) {
+                System.arraycopy(values.get(i), 0, data, (int) offsets[i], values.get(i).length);
+            }
+            writeNpy(zip, name + ".offsets", "<i8", offsets.length, toBytes(offsets, offsets.length));
+            writeNpy(zip, name + ".data", "|u1", data.length, data);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.issueTracker.errors.NotFoundException;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.web.HttpRequestMethodNotSupportedException;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Asynchronous counterpart of {@link BuildInfoController}.
+ * <ul>
+ * <li>{@code POST} with {@code projectExternalId} (or {@code affectedProject}) and {@code ids} submits a job
+ * and returns its id, the ids can be posted as in {@link BuildInfoController}</li>
+ * <li>{@code jobId} returns the progress of the job, {@code DELETE} with {@code jobId} deletes it</li>
+ * <li>{@code jobId} and {@code chunk} return a completed chunk as JSON, gzipped if the client accepts it</li>
+ * </ul>
+ */
+public class ExportJobController extends BaseController {
+    private final ProjectManager projectManager;
+    private final SecurityContext mySecurityContext;
+    private final BuildInfoCollector myBuildInfoCollector;
+    private final ExportJobManager myExportJobManager;
+
+    private final Gson myGson = new GsonBuilder().setPrettyPrinting().create();
+
+    public ExportJobController(@NotNull final SBuildServer server,
+                               @NotNull final WebControllerManager manager,
+                               @NotNull final ProjectManager projectManager,
+                               @NotNull final SecurityContext securityContext,
+                               @NotNull final BuildInfoCollector buildInfoCollector,
+                               @NotNull final ExportJobManager exportJobManager) {
+        super(server);
+        this.projectManager = projectManager;
+        mySecurityContext = securityContext;
+        myBuildInfoCollector = buildInfoCollector;
+        myExportJobManager = exportJobManager;
+        manager.registerController("/assignInfoExport.html", this);
+    }
+
+    @Nullable
+    @Override
+    protected ModelAndView doHandle(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws Exception {
+        boolean delete = "DELETE".equals(request.getMethod());
+        if (!isGet(request) && !isPost(request) && !delete) {
+            throw new HttpRequestMethodNotSupportedException(request.getMethod());
+        }
+
+        String jobId = request.getParameter("jobId");
+        if (jobId == null) {
+            if (delete) {
+                throw new IllegalArgumentException("jobId parameter is required");
+            }
+            if (!isPost(request)) {
+                // submitting a job is not safe to repeat, a prefetched or reloaded GET would start it again
+                throw new HttpRequestMethodNotSupportedException(request.getMethod(), new String[]{"POST"});
+            }
+            List<SProject> projects = ProjectSelection.resolve(projectManager, mySecurityContext, request);
+            String submittedId = myExportJobManager.submit(ProjectSelection.toParameter(projects),
+                    BuildTestIds.read(request),
+                    myBuildInfoCollector.createOptions(request));
+            sendResponse(response, Collections.singletonMap("jobId", submittedId));
+            return null;
+        }
+
+        ExportJobManager.ExportJob job = myExportJobManager.findJob(jobId);
+        if (job == null) {
+            throw new NotFoundException("Export job with specified jobId not found");
+        }
+        ProjectSelection.resolve(projectManager, mySecurityContext, job.projectExternalId, null);
+
+        if (delete) {
+            myExportJobManager.delete(job);
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return null;
+        }
+
+        String chunk = request.getParameter("chunk");
+        if (chunk == null) {
+            sendResponse(response, myExportJobManager.getStatus(job));
+            return null;
+        }
+
+        File chunkFile = myExportJobManager.getChunk(job, Integer.parseInt(chunk));
+        if (chunkFile == null) {
+            throw new NotFoundException("Chunk " + chunk + " of export job " + jobId + " is not completed");
+        }
+        response.setContentType("application/json");
+        response.addHeader("Vary", "Accept-Encoding");
+        if (ResponseEncoding.select(request) == ResponseEncoding.GZIP) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.setContentLength((int) chunkFile.length());
+            Files.copy(chunkFile.toPath(), response.getOutputStream());
+        } else {
+            // the client doesn't accept gzip
+            try (InputStream in = new GZIPInputStream(new FileInputStream(chunkFile))) {
+                OutputStream out = response.getOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void sendResponse(@NotNull HttpServletResponse servletResponse,
+                              @NotNull Object result) throws IOException {
+        try (OutputStreamWriter writer = new OutputStreamWriter(servletResponse.getOutputStream(), StandardCharsets.UTF_8)) {
+            servletResponse.setContentType("application/json");
+            writer.write(myGson.toJson(result));
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.intellij.openapi.diagnostic.Logger;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.auth.SecurityContextEx;
+import jetbrains.buildServer.util.NamedThreadFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs export jobs in the background. Every job writes its builds into numbered gzipped JSON chunk files
+ * under the plugin data directory, so finished chunks can be downloaded while the job is running,
+ * and an interrupted job continues from the first missing chunk after a restart.
+ * Jobs older than {@code export.retentionHours} are deleted, as are the oldest jobs over {@code export.maxJobs},
+ * on start and whenever a job is submitted.
+ */
+public class ExportJobManager implements DisposableBean {
+    private static final Logger LOG = Logger.getInstance(ExportJobManager.class.getName());
+
+    private static final String THREADS_PROPERTY = "teamcity.assignInfoCollector.export.threads";
+    private static final String CHUNK_SIZE_PROPERTY = "teamcity.assignInfoCollector.export.chunkSize";
+    private static final String RETENTION_PROPERTY = "teamcity.assignInfoCollector.export.retentionHours";
+    private static final String MAX_JOBS_PROPERTY = "teamcity.assignInfoCollector.export.maxJobs";
+
+    private static final String JOB_FILE = "job.json";
+    private static final String FINISHED_FILE = "finished";
+    private static final String ERROR_FILE = "error.txt";
+    private static final Pattern JOB_ID_PATTERN = Pattern.compile("[a-f0-9\\-]+");
+    // a deleted job is renamed first, so its running task can't write into it any more
+    private static final String DELETED_SUFFIX = ".deleted";
+
+    private final File myJobsDir;
+    private final BuildInfoCollector myBuildInfoCollector;
+    private final CollectorMetrics myCollectorMetrics;
+    private final SecurityContextEx mySecurityContext;
+    private final ExecutorService myExecutor;
+    private final Gson myGson = new Gson();
+    private final Set<String> myRunningJobs = ConcurrentHashMap.newKeySet();
+
+    public ExportJobManager(@NotNull final ServerPaths serverPaths,
+                            @NotNull final BuildInfoCollector buildInfoCollector,
+                            @NotNull final CollectorMetrics collectorMetrics,
+                            @NotNull final SecurityContextEx securityContext) {
+        myJobsDir = new File(serverPaths.getPluginDataDirectory(), "assignInfoCollector/exports");
+        myBuildInfoCollector = buildInfoCollector;
+        myCollectorMetrics = collectorMetrics;
+        mySecurityContext = securityContext;
+        myExecutor = Executors.newFixedThreadPool(Math.max(1, TeamCityProperties.getInteger(THREADS_PROPERTY, 1)),
+                new NamedThreadFactory("AssignInfoCollectorExport"));
+        removeOldJobs();
+        resumeJobs();
+    }
+
+    /**
+     * @param projectExternalId comma separated external ids of the projects the job was requested for
+     * @return id of the submitted job
+     */
+    @NotNull
+    String submit(@NotNull String projectExternalId,
+                  @NotNull BuildTestIds ids,
+                  @NotNull BuildInfoCollector.Options options) throws IOException {
+        removeOldJobs();
+        int chunkSize = Math.max(1, TeamCityProperties.getInteger(CHUNK_SIZE_PROPERTY, 100));
+        ExportJob job = new ExportJob(UUID.randomUUID().toString(), projectExternalId,
+                new LinkedHashMap<>(ids.toMap()), options, chunkSize);
+
+        File jobDir = getJobDir(job.jobId);
+        if (!jobDir.mkdirs()) {
+            throw new IOException("Failed to create export job directory " + jobDir.getAbsolutePath());
+        }
+        writeAtomically(new File(jobDir, JOB_FILE), out -> {
+            try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+                myGson.toJson(job, writer);
+            }
+        });
+
+        schedule(job);
+        return job.jobId;
+    }
+
+    @Nullable
+    ExportJob findJob(@NotNull String jobId) {
+        if (!JOB_ID_PATTERN.matcher(jobId).matches()) {
+            return null;
+        }
+
+        File jobFile = new File(getJobDir(jobId), JOB_FILE);
+        if (!jobFile.isFile()) {
+            return null;
+        }
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(jobFile), StandardCharsets.UTF_8)) {
+            return myGson.fromJson(reader, ExportJob.class);
+        } catch (IOException | JsonParseException e) {
+            LOG.warn("Failed to read export job " + jobId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @NotNull
+    ExportJobStatus getStatus(@NotNull ExportJob job) {
+        File jobDir = getJobDir(job.jobId);
+        File errorFile = new File(jobDir, ERROR_FILE);
+
+        String state;
+        String error = null;
+        if (new File(jobDir, FINISHED_FILE).isFile()) {
+            state = ExportJobStatus.FINISHED;
+        } else if (errorFile.isFile()) {
+            state = ExportJobStatus.FAILED;
+            try {
+                error = new String(Files.readAllBytes(errorFile.toPath()), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                error = e.getMessage();
+            }
+        } else if (myRunningJobs.contains(job.jobId)) {
+            state = ExportJobStatus.RUNNING;
+        } else {
+            state = ExportJobStatus.QUEUED;
+        }
+
+        return new ExportJobStatus(job.jobId, state, job.getChunkCount(), getCompletedChunks(job), error);
+    }
+
+    /**
+     * @return file of the chunk if it is completed, null otherwise
+     */
+    @Nullable
+    File getChunk(@NotNull ExportJob job, int chunk) {
+        if (chunk < 0 || chunk >= job.getChunkCount()) {
+            return null;
+        }
+
+        File chunkFile = getChunkFile(job.jobId, chunk);
+        return chunkFile.isFile() ? chunkFile : null;
+    }
+
+    /**
+     * Deletes the job with its chunks, a running job stops before its next chunk.
+     */
+    void delete(@NotNull ExportJob job) throws IOException {
+        File deletedDir = new File(myJobsDir, job.jobId + DELETED_SUFFIX);
+        try {
+            Files.move(getJobDir(job.jobId).toPath(), deletedDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // deleted concurrently
+            return;
+        }
+        deleteDir(deletedDir);
+    }
+
+    /**
+     * Deletes jobs over the retention time, and the oldest jobs over the maximum number of jobs.
+     */
+    private void removeOldJobs() {
+        File[] jobDirs = myJobsDir.listFiles(File::isDirectory);
+        if (jobDirs == null) {
+            return;
+        }
+
+        long expired = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(TeamCityProperties.getLong(RETENTION_PROPERTY, 72));
+        int maxJobs = Math.max(1, TeamCityProperties.getInteger(MAX_JOBS_PROPERTY, 100));
+        List<File> jobFiles = new ArrayList<>();
+        for (File jobDir : jobDirs) {
+            if (jobDir.getName().endsWith(DELETED_SUFFIX)) {
+                // left by a failed deletion
+                deleteDir(jobDir);
+            } else {
+                jobFiles.add(new File(jobDir, JOB_FILE));
+            }
+        }
+        // newest first, the job file is written on submit
+        jobFiles.sort(Comparator.comparingLong(File::lastModified).reversed());
+
+        for (int i = 0; i < jobFiles.size(); i++) {
+            File jobFile = jobFiles.get(i);
+            if (i >= maxJobs || jobFile.lastModified() < expired) {
+                ExportJob job = findJob(jobFile.getParentFile().getName());
+                try {
+                    if (job != null) {
+                        delete(job);
+                    } else {
+                        deleteDir(jobFile.getParentFile());
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Failed to delete export job " + jobFile.getParentFile().getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void deleteDir(@NotNull File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    LOG.warn("Failed to delete " + file.getAbsolutePath());
+                }
+            }
+        }
+        if (!dir.delete()) {
+            LOG.warn("Failed to delete " + dir.getAbsolutePath());
+        }
+    }
+
+    private boolean isDeleted(@NotNull ExportJob job) {
+        return !new File(getJobDir(job.jobId), JOB_FILE).isFile();
+    }
+
+    private void schedule(@NotNull ExportJob job) {
+        myExecutor.submit(() -> {
+            if (isDeleted(job)) {
+                return;
+            }
+            myRunningJobs.add(job.jobId);
+            try {
+                mySecurityContext.runAsSystem(() -> run(job));
+            } catch (Throwable e) {
+                if (isDeleted(job)) {
+                    LOG.info("Export job " + job.jobId + " was deleted while running");
+                    return;
+                }
+                LOG.warn("Export job " + job.jobId + " failed", e);
+                try {
+                    Files.write(new File(getJobDir(job.jobId), ERROR_FILE).toPath(), String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                } catch (IOException writeError) {
+                    LOG.warn("Failed to record error of export job " + job.jobId + ": " + writeError.getMessage());
+                }
+            } finally {
+                myRunningJobs.remove(job.jobId);
+            }
+        });
+    }
+
+    private void run(@NotNull ExportJob job) throws IOException {
+        List<Long> buildIds = new ArrayList<>(job.buildToTestsMap.keySet());
+
+        for (int chunk = getCompletedChunks(job); chunk < job.getChunkCount(); chunk++) {
+            if (isDeleted(job)) {
+                return;
+            }
+            Map<Long, List<Long>> chunkBuilds = new LinkedHashMap<>();
+            for (Long buildId : buildIds.subList(chunk * job.chunkSize, Math.min(buildIds.size(), (chunk + 1) * job.chunkSize))) {
+                chunkBuilds.put(buildId, job.buildToTestsMap.get(buildId));
+            }
+
+            try (RequestMetrics metrics = myCollectorMetrics.start("assignInfoExport")) {
+                Iterator<BuildInfo> builds = myBuildInfoCollector.collect(BuildTestIds.fromMap(chunkBuilds), job.options, metrics);
+                writeAtomically(getChunkFile(job.jobId, chunk), out -> {
+                    try (JsonArrayWriter writer = new JsonArrayWriter(myGson,
+                            new OutputStreamWriter(new GZIPOutputStream(metrics.countBytes(out)), StandardCharsets.UTF_8))) {
+                        while (builds.hasNext()) {
+                            writer.write(builds.next());
+                        }
+                        writer.finish();
+                    }
+                });
+            }
+        }
+
+        if (isDeleted(job)) {
+            return;
+        }
+        if (!new File(getJobDir(job.jobId), FINISHED_FILE).createNewFile()) {
+            LOG.warn("Export job " + job.jobId + " is already marked as finished");
+        }
+    }
+
+    /**
+     * Chunks are written in order, so the completed ones are the chunks before the first missing file.
+     */
+    private int getCompletedChunks(@NotNull ExportJob job) {
+        int completed = 0;
+        while (completed < job.getChunkCount() && getChunkFile(job.jobId, completed).isFile()) {
+            completed++;
+        }
+        return completed;
+    }
+
+    private void resumeJobs() {
+        File[] jobDirs = myJobsDir.listFiles(File::isDirectory);
+        if (jobDirs == null) {
+            return;
+        }
+
+        for (File jobDir : jobDirs) {
+            if (new File(jobDir, FINISHED_FILE).isFile() || new File(jobDir, ERROR_FILE).isFile()) {
+                continue;
+            }
+
+            ExportJob job = findJob(jobDir.getName());
+            if (job != null) {
+                LOG.info("Resuming export job " + job.jobId + " from chunk " + getCompletedChunks(job));
+                schedule(job);
+            }
+        }
+    }
+
+    private void writeAtomically(@NotNull File file, @NotNull OutputWriter outputWriter) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            outputWriter.write(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @NotNull
+    private File getJobDir(@NotNull String jobId) {
+        return new File(myJobsDir, jobId);
+    }
+
+    @NotNull
+    private File getChunkFile(@NotNull String jobId, int chunk) {
+        return new File(getJobDir(jobId), String.format("chunk_%05d.json.gz", chunk));
+    }
+
+    @Override
+    public void destroy() {
+        myExecutor.shutdownNow();
+    }
+
+    private interface OutputWriter {
+        void write(@NotNull OutputStream out) throws IOException;
+    }
+
+    static class ExportJob {
+        final String jobId;
+        // comma separated, checked again on every access to the job
+        final String projectExternalId;
+        final LinkedHashMap<Long, List<Long>> buildToTestsMap;
+        final BuildInfoCollector.Options options;
+        final int chunkSize;
+
+        ExportJob(String jobId,
+                  String projectExternalId,
+                  LinkedHashMap<Long, List<Long>> buildToTestsMap,
+                  BuildInfoCollector.Options options,
+                  int chunkSize) {
+            this.jobId = jobId;
+            this.projectExternalId = projectExternalId;
+            this.buildToTestsMap = buildToTestsMap;
+            this.options = options;
+            this.chunkSize = chunkSize;
+        }
+
+        int getChunkCount() {
+            return (buildToTestsMap.size() + chunkSize - 1) / chunkSize;
+        }
+    }
+
+    static class ExportJobStatus {
+        static final String QUEUED = "queued";
+        static final String RUNNING = "running";
+        static final String FINISHED = "finished";
+        static final String FAILED = "failed";
+
+        final String jobId;
+        final String state;
+        final int chunks;
+        final int completedChunks;
+        final String error;
+
+        ExportJobStatus(String jobId, String state, int chunks, int completedChunks, String error) {
+            this.jobId = jobId;
+            this.state = state;
+            this.chunks = chunks;
+            this.completedChunks = completedChunks;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.users.SUser;
+import jetbrains.buildServer.vcs.SVcsModification;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lookups shared by all builds of one collection: committers and changes repeat across the builds of a batch,
+ * and all builds of a project share its hierarchy. Used from the collector workers, so it is thread safe.
+ */
+class ExtractionContext {
+    private final ProjectManager projectManager;
+    private final Limits myLimits;
+
+    private final Map<Long, UserInfo> myUsers = new ConcurrentHashMap<>();
+    private final Map<Long, ChangeInfo> myChanges = new ConcurrentHashMap<>();
+    private final Map<String, Optional<SProject>> myProjects = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> myProjectHierarchies = new ConcurrentHashMap<>();
+
+    ExtractionContext(@NotNull ProjectManager projectManager, @NotNull Limits limits) {
+        this.projectManager = projectManager;
+        myLimits = limits;
+    }
+
+    @NotNull
+    Limits getLimits() {
+        return myLimits;
+    }
+
+    @NotNull
+    UserInfo getUser(@NotNull SUser user) {
+        return myUsers.computeIfAbsent(user.getId(), id -> new UserInfo(user));
+    }
+
+    @NotNull
+    ChangeInfo getChange(@NotNull SVcsModification modification) {
+        return myChanges.computeIfAbsent(modification.getId(), id -> new ChangeInfo(modification, myLimits.filesChangedLimit));
+    }
+
+    @Nullable
+    SProject findProjectByExternalId(@NotNull String projectExternalId) {
+        return myProjects.computeIfAbsent(projectExternalId,
+                id -> Optional.ofNullable(projectManager.findProjectByExternalId(id))).orElse(null);
+    }
+
+    /**
+     * @return internal ids of the projects and all their parents
+     */
+    @NotNull
+    Set<String> getProjectsHierarchyIds(@NotNull Collection<SProject> projects) {
+        Set<String> result = new HashSet<>();
+        for (SProject project : projects) {
+            result.addAll(myProjectHierarchies.computeIfAbsent(project.getProjectId(), id -> collectProjectHierarchyIds(project)));
+        }
+        return result;
+    }
+
+    @NotNull
+    private static Set<String> collectProjectHierarchyIds(@NotNull SProject project) {
+        Set<String> result = new HashSet<>();
+        do {
+            result.add(project.getProjectId());
+            project = project.getParentProject();
+        } while (project != null);
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Groups of expensive build and test fields which can be requested with the {@code fields} parameter.
+ */
+enum InfoField {
+    CHANGES("changes"),
+    COMMITTERS("committers"),
+    REASONS("reasons"),
+    STACKTRACE("stacktrace"),
+    TEST_COUNT("testCount");
+
+    private final String myName;
+
+    InfoField(@NotNull String name) {
+        myName = name;
+    }
+
+    /**
+     * @param fields comma separated field groups, null for all of them
+     */
+    @NotNull
+    static Set<InfoField> parse(@Nullable String fields) {
+        if (fields == null) {
+            return EnumSet.allOf(InfoField.class);
+        }
+
+        Set<InfoField> result = EnumSet.noneOf(InfoField.class);
+        for (String name : fields.split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            result.add(fromName(name.trim()));
+        }
+        return result;
+    }
+
+    @NotNull
+    private static InfoField fromName(@NotNull String name) {
+        for (InfoField field : values()) {
+            if (field.myName.equals(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field '" + name + "'");
+    }
+}
@@ -0,0 +1,83 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes a JSON array element by element, so the response is sent while it is being built
+ * instead of being serialized into one string at the end.
+ * <p>
+ * If the array is named, it is wrapped into an object, and properties known only after the last element
+ * are written after the array.
+ * <p>
+ * The array is completed by {@link #finish()} only. If writing fails before that, {@link #close()} leaves
+ * the output as it is: the client gets a broken response instead of a shorter but valid array,
+ * and a compressed stream doesn't get its trailer.
+ */
+class JsonArrayWriter implements Closeable {
+    private final Gson myGson;
+    private final JsonWriter myWriter;
+    private final boolean myWrapped;
+    private final Map<String, Object> myTrailingProperties = new LinkedHashMap<>();
+    private boolean myFinished;
+
+    JsonArrayWriter(@NotNull Gson gson, @NotNull Writer writer) throws IOException {
+        this(gson, writer, null);
+    }
+
+    JsonArrayWriter(@NotNull Gson gson, @NotNull Writer writer, @Nullable String arrayName) throws IOException {
+        myGson = gson;
+        myWriter = new JsonWriter(writer);
+        myWrapped = arrayName != null;
+        if (myWrapped) {
+            myWriter.beginObject();
+            myWriter.name(arrayName);
+        }
+        myWriter.beginArray();
+    }
+
+    void write(@NotNull Object element) {
+        myGson.toJson(element, element.getClass(), myWriter);
+    }
+
+    void addTrailingProperty(@NotNull String name, @NotNull Object value) {
+        if (!myWrapped) {
+            throw new IllegalStateException("Trailing properties require a named array");
+        }
+        myTrailingProperties.put(name, value);
+    }
+
+    void flush() throws IOException {
+        myWriter.flush();
+    }
+
+    /**
+     * Closes the array and writes the trailing properties, called after the last element.
+     */
+    void finish() throws IOException {
+        myWriter.endArray();
+        if (myWrapped) {
+            for (Map.Entry<String, Object> property : myTrailingProperties.entrySet()) {
+                myWriter.name(property.getKey());
+                myGson.toJson(property.getValue(), property.getValue().getClass(), myWriter);
+            }
+            myWriter.endObject();
+        }
+        myFinished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (myFinished) {
+            myWriter.close();
+        }
+    }
+}
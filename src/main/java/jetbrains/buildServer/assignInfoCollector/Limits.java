@@ -1,7 +1,112 @@
 package jetbrains.buildServer.assignInfoCollector;
 
-public class Limits {
-    public static final int TEST_LIMIT = 1000;
-    public static final int CHANGE_LIMIT = 100;
-    public static final int FILES_CHANGED_LIMIT = 100;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Limits of one collection, see Limits.md.
+ * Defaults come from the server properties, a request may override them up to the server maximums.
+ */
+class Limits {
+    private static final String PROPERTY_PREFIX = "teamcity.assignInfoCollector.limits.";
+
+    private static final int DEFAULT_TEST_LIMIT = 1000;
+    private static final int DEFAULT_CHANGE_LIMIT = 100;
+    private static final int DEFAULT_FILES_CHANGED_LIMIT = 100;
+
+    final int testLimit;
+    final int changeLimit;
+    final int filesChangedLimit;
+
+    Limits(int testLimit, int changeLimit, int filesChangedLimit) {
+        this.testLimit = testLimit;
+        this.changeLimit = changeLimit;
+        this.filesChangedLimit = filesChangedLimit;
+    }
+
+    @NotNull
+    static Limits getDefault() {
+        return new Limits(getDefault("tests", DEFAULT_TEST_LIMIT),
+                getDefault("changes", DEFAULT_CHANGE_LIMIT),
+                getDefault("filesChanged", DEFAULT_FILES_CHANGED_LIMIT));
+    }
+
+    @NotNull
+    static Limits create(@NotNull HttpServletRequest request) {
+        return new Limits(getLimit(request, "testLimit", "tests", DEFAULT_TEST_LIMIT),
+                getLimit(request, "changeLimit", "changes", DEFAULT_CHANGE_LIMIT),
+                getLimit(request, "filesChangedLimit", "filesChanged", DEFAULT_FILES_CHANGED_LIMIT));
+    }
+
+    /**
+     * @return true if builds are extracted the same way as with the server defaults, only such ones are cached;
+     * the test limit doesn't matter, the cache knows which tests were checked
+     */
+    boolean hasDefaultBuildLimits() {
+        Limits defaults = getDefault();
+        return changeLimit == defaults.changeLimit && filesChangedLimit == defaults.filesChangedLimit;
+    }
+
+    /**
+     * Reads a limit kept outside of this class the same way: the server property gives the default,
+     * {@code <property>.max} caps the default and the request parameter. 0 is a valid value for such limits,
+     * it means no limit or the TeamCity default.
+     *
+     * @param property full name of the server property, its default is 0
+     */
+    static int getNonNegative(@NotNull HttpServletRequest request, @NotNull String parameter, @NotNull String property, int maxDefault) {
+        return getLimit(request, parameter, property, 0, maxDefault, 0);
+    }
+
+    /**
+     * @return the server default of a limit read by {@link #getNonNegative}
+     */
+    static int getNonNegativeDefault(@NotNull String property, int maxDefault) {
+        return getDefault(property, 0, maxDefault);
+    }
+
+    private static int getDefault(@NotNull String property, int defaultValue) {
+        return getDefault(PROPERTY_PREFIX + property, defaultValue, defaultValue * 10);
+    }
+
+    private static int getDefault(@NotNull String property, int defaultValue, int maxDefault) {
+        return Math.min(TeamCityProperties.getInteger(property, defaultValue), getMax(property, maxDefault));
+    }
+
+    private static int getMax(@NotNull String property, int maxDefault) {
+        return TeamCityProperties.getInteger(property + ".max", maxDefault);
+    }
+
+    private static int getLimit(@NotNull HttpServletRequest request,
+                                @NotNull String parameter,
+                                @NotNull String property,
+                                int defaultValue) {
+        return getLimit(request, parameter, PROPERTY_PREFIX + property, defaultValue, defaultValue * 10, 1);
+    }
+
+    private static int getLimit(@NotNull HttpServletRequest request,
+                                @NotNull String parameter,
+                                @NotNull String property,
+                                int defaultValue,
+                                int maxDefault,
+                                int minValue) {
+        @Nullable String value = request.getParameter(parameter);
+        if (value == null) {
+            return getDefault(property, defaultValue, maxDefault);
+        }
+
+        int limit;
+        try {
+            limit = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(parameter + " must be a number, got '" + value + "'");
+        }
+        if (limit < minValue) {
+            throw new IllegalArgumentException(parameter + (minValue > 0 ? " must be positive" : " must not be negative") + ", got " + limit);
+        }
+        return Math.min(limit, getMax(property, maxDefault));
+    }
 }
@@ -0,0 +1,126 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code format=normalized} response: users, repeated strings and stack traces are written once in dictionaries
+ * before the builds, and the builds refer to them by index.
+ * <ul>
+ * <li>{@code users} -- committers, referenced from {@code builds[].committers}</li>
+ * <li>{@code strings} -- {@code changes[].changesNames}, {@code changes[].userName}, test names and
+ * {@code tests[].previousResponsible}</li>
+ * <li>{@code stacktraces} -- {@code tests[].stacktrace}</li>
+ * </ul>
+ */
+class NormalizedResponse {
+    private static final String[] TEST_STRING_FIELDS = {"className", "testMethod", "testClass", "testSuite"};
+
+    private final Gson myGson;
+
+    private final Dictionary myUsers = new Dictionary();
+    private final Dictionary myStrings = new Dictionary();
+    private final Dictionary myStacktraces = new Dictionary();
+    private final JsonArray myBuilds = new JsonArray();
+
+    NormalizedResponse(@NotNull Gson gson) {
+        myGson = gson;
+    }
+
+    void add(@NotNull BuildInfo buildInfo) {
+        JsonObject build = myGson.toJsonTree(buildInfo).getAsJsonObject();
+
+        JsonArray committers = getArray(build, "committers");
+        if (committers != null) {
+            JsonArray refs = new JsonArray();
+            for (JsonElement committer : committers) {
+                refs.add(myUsers.indexOf(committer.getAsJsonObject().get("id").getAsString(), committer));
+            }
+            build.add("committers", refs);
+        }
+
+        JsonArray changes = getArray(build, "changes");
+        if (changes != null) {
+            for (JsonElement change : changes) {
+                JsonObject changeObject = change.getAsJsonObject();
+                replaceStrings(changeObject, "changesNames");
+                replaceString(changeObject, "userName", myStrings);
+            }
+        }
+
+        JsonArray tests = getArray(build, "tests");
+        if (tests != null) {
+            for (JsonElement test : tests) {
+                JsonObject testObject = test.getAsJsonObject();
+                for (String field : TEST_STRING_FIELDS) {
+                    replaceString(testObject, field, myStrings);
+                }
+                replaceStrings(testObject, "previousResponsible");
+                replaceString(testObject, "stacktrace", myStacktraces);
+            }
+        }
+
+        myBuilds.add(build);
+    }
+
+    void write(@NotNull Writer writer) throws IOException {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.beginObject();
+        jsonWriter.name("users");
+        myGson.toJson(myUsers.myValues, jsonWriter);
+        jsonWriter.name("strings");
+        myGson.toJson(myStrings.myValues, jsonWriter);
+        jsonWriter.name("stacktraces");
+        myGson.toJson(myStacktraces.myValues, jsonWriter);
+        jsonWriter.name("builds");
+        myGson.toJson(myBuilds, jsonWriter);
+        jsonWriter.endObject();
+        jsonWriter.flush();
+    }
+
+    private void replaceStrings(@NotNull JsonObject object, @NotNull String field) {
+        JsonArray values = getArray(object, field);
+        if (values == null) {
+            return;
+        }
+
+        JsonArray refs = new JsonArray();
+        for (JsonElement value : values) {
+            refs.add(myStrings.indexOf(value.getAsString(), value));
+        }
+        object.add(field, refs);
+    }
+
+    private static void replaceString(@NotNull JsonObject object, @NotNull String field, @NotNull Dictionary dictionary) {
+        JsonElement value = object.get(field);
+        if (value != null && value.isJsonPrimitive()) {
+            object.addProperty(field, dictionary.indexOf(value.getAsString(), value));
+        }
+    }
+
+    @Nullable
+    private static JsonArray getArray(@NotNull JsonObject object, @NotNull String field) {
+        JsonElement value = object.get(field);
+        return value != null && value.isJsonArray() ? value.getAsJsonArray() : null;
+    }
+
+    private static class Dictionary {
+        // keyed by content, equal stack traces from different tests share an entry
+        private final Map<String, Integer> myIndices = new HashMap<>();
+        private final JsonArray myValues = new JsonArray();
+
+        int indexOf(@NotNull String key, @NotNull JsonElement value) {
+            return myIndices.computeIfAbsent(key, k -> {
+                myValues.add(value);
+                return myValues.size() - 1;
+            });
+        }
+    }
+}
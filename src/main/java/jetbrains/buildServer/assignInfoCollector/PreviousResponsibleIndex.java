@@ -0,0 +1,251 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.responsibility.ResponsibilityEntry;
+import jetbrains.buildServer.responsibility.TestNameResponsibilityEntry;
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.BuildServerListener;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+import jetbrains.buildServer.serverSide.audit.*;
+import jetbrains.buildServer.serverSide.impl.audit.filters.TestId;
+import jetbrains.buildServer.users.User;
+import jetbrains.buildServer.util.EventDispatcher;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Previous responsibles of tests by project. A test is loaded from the audit log the first time it is asked for,
+ * after that it is kept up to date by investigation events, so repeated lookups don't touch the audit log.
+ * At most {@code teamcity.assignInfoCollector.audit.indexSize} (test, project) pairs are kept,
+ * least recently used ones are evicted first and loaded again when asked for.
+ */
+public class PreviousResponsibleIndex extends BuildServerAdapter {
+    private static final String AUDIT_CHUNK_SIZE_PROPERTY = "teamcity.assignInfoCollector.audit.chunkSize";
+    private static final String INDEX_SIZE_PROPERTY = "teamcity.assignInfoCollector.audit.indexSize";
+
+    private final AuditLogProvider auditLogProvider;
+
+    // TestId object id -> responsibles, in access order
+    private final Map<String, Entry> myIndex = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > Math.max(1, TeamCityProperties.getInteger(INDEX_SIZE_PROPERTY, 100_000));
+        }
+    });
+    // changed by every investigation event, starts from the server start time so it isn't reused after a restart
+    private final AtomicLong myVersion = new AtomicLong(System.currentTimeMillis());
+
+    public PreviousResponsibleIndex(@NotNull final AuditLogProvider auditLogProvider,
+                                    @NotNull final EventDispatcher<BuildServerListener> eventDispatcher) {
+        this.auditLogProvider = auditLogProvider;
+        eventDispatcher.addListener(this);
+    }
+
+    /**
+     * @param projectIds internal ids of the projects with all their parents
+     * @param maxPerTest maximum number of previous responsibles kept for a test, 0 for no limit
+     * @return previous responsibles of the tests in the projects, newest first
+     */
+    @NotNull
+    public Map<Long, List<String>> find(@NotNull final Set<Long> testNameIds, @NotNull Set<String> projectIds, int maxPerTest) {
+        Map<String, Entry> entries = loadMissing(testNameIds, projectIds);
+
+        Map<Long, List<String>> result = new HashMap<>();
+        for (Long testNameId : testNameIds) {
+            List<Responsible> responsibles = new ArrayList<>();
+            for (String projectId : projectIds) {
+                responsibles.addAll(entries.get(TestId.createOn(testNameId, projectId).asString()).getResponsibles());
+            }
+            if (responsibles.isEmpty()) {
+                continue;
+            }
+
+            responsibles.sort(Comparator.comparingLong((Responsible responsible) -> responsible.time).reversed());
+            List<String> names = new ArrayList<>();
+            for (Responsible responsible : responsibles) {
+                if (maxPerTest > 0 && names.size() >= maxPerTest) {
+                    break;
+                }
+                names.add(responsible.name);
+            }
+            result.put(testNameId, names);
+        }
+        return result;
+    }
+
+    /**
+     * @return a value which changes whenever investigations change, and with them the previous responsibles
+     * and the investigated tests of the extracted builds
+     */
+    long getVersion() {
+        return myVersion.get();
+    }
+
+    @Override
+    public void responsibleChanged(@NotNull SProject project,
+                                   @NotNull Collection<TestNameResponsibilityEntry> oldValues,
+                                   @NotNull Collection<TestNameResponsibilityEntry> newValues,
+                                   boolean isUserAction) {
+        myVersion.incrementAndGet();
+        for (TestNameResponsibilityEntry entry : newValues) {
+            if (entry.getState() != ResponsibilityEntry.State.TAKEN && entry.getState() != ResponsibilityEntry.State.FIXED) {
+                continue;
+            }
+
+            // tests which were never asked for are loaded from the audit log later, the change is already there;
+            // tests being loaded get the change here, the load skips it if the audit query sees it as well
+            Entry indexed = myIndex.get(TestId.createOn(entry.getTestNameId(), project.getProjectId()).asString());
+            if (indexed != null) {
+                indexed.add(new Responsible(System.currentTimeMillis(), entry.getResponsibleUser().getExtendedName()), true);
+            }
+        }
+    }
+
+    /**
+     * Loads tests missing in the index in chunks of {@code teamcity.assignInfoCollector.audit.chunkSize} tests,
+     * so neither the audit query nor the loaded actions grow with the number of tests.
+     *
+     * @return entries of all the tests in the projects, loaded here or indexed before; the lookup reads them
+     * from here, as the index may evict them meanwhile
+     */
+    @NotNull
+    private Map<String, Entry> loadMissing(@NotNull Set<Long> testNameIds, @NotNull Set<String> projectIds) {
+        int chunkSize = Math.max(1, TeamCityProperties.getInteger(AUDIT_CHUNK_SIZE_PROPERTY, 100));
+
+        Map<String, Entry> entries = new HashMap<>();
+        Map<String, Entry> chunk = new HashMap<>();
+        int chunkTests = 0;
+        for (Long testNameId : testNameIds) {
+            boolean missing = false;
+            for (String projectId : projectIds) {
+                String objectId = TestId.createOn(testNameId, projectId).asString();
+                // the entry is indexed before the audit query, so events arriving during the load are not lost
+                Entry entry = new Entry();
+                Entry indexed = myIndex.putIfAbsent(objectId, entry);
+                if (indexed == null) {
+                    chunk.put(objectId, entry);
+                    missing = true;
+                }
+                entries.put(objectId, indexed == null ? entry : indexed);
+            }
+            if (missing && ++chunkTests == chunkSize) {
+                load(chunk);
+                chunk.clear();
+                chunkTests = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            load(chunk);
+        }
+        return entries;
+    }
+
+    private void load(@NotNull Map<String, Entry> entries) {
+        try {
+            AuditLogBuilder builder = auditLogProvider.getBuilder();
+            builder.setActionTypes(ActionType.TEST_MARK_AS_FIXED,
+                    ActionType.TEST_INVESTIGATION_ASSIGN,
+                    ActionType.TEST_INVESTIGATION_ASSIGN_STICKY);
+            builder.setObjectIds(entries.keySet());
+
+            for (AuditLogAction action : builder.getLogActions(-1)) {
+                Entry entry = entries.get(action.getObjectId());
+                if (entry == null) {
+                    continue;
+                }
+
+                for (ObjectWrapper obj : action.getObjects()) {
+                    Object user = obj.getObject();
+                    if (user instanceof User) {
+                        entry.add(new Responsible(action.getCreated().getTime(), ((User) user).getExtendedName()), false);
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            // loaded again by the next lookup, lookups waiting for these entries fail as this one
+            entries.forEach((objectId, entry) -> {
+                myIndex.remove(objectId, entry);
+                entry.failed(e);
+            });
+            throw e;
+        }
+        entries.values().forEach(Entry::loaded);
+    }
+
+    /**
+     * Responsibles of a test in a project. Lookups wait until the entry is loaded from the audit log,
+     * an entry which failed to load is never read as an empty one.
+     */
+    private static class Entry {
+        private final CountDownLatch myLoaded = new CountDownLatch(1);
+        private final long myCreated = System.currentTimeMillis();
+        // set before the latch is released
+        private volatile Throwable myFailure;
+        // guarded by this
+        private final List<Responsible> myResponsibles = new ArrayList<>();
+
+        /**
+         * @param fromEvent true for investigation events, false for audit actions; an action which happened
+         *                  after the entry was indexed may have been added by its event already
+         */
+        synchronized void add(@NotNull Responsible responsible, boolean fromEvent) {
+            if (!fromEvent && responsible.time >= myCreated) {
+                for (Responsible existing : myResponsibles) {
+                    if (existing.fromEvent && existing.name.equals(responsible.name)) {
+                        return;
+                    }
+                }
+            }
+            myResponsibles.add(fromEvent ? responsible.asEvent() : responsible);
+        }
+
+        void loaded() {
+            myLoaded.countDown();
+        }
+
+        void failed(@NotNull Throwable failure) {
+            myFailure = failure;
+            myLoaded.countDown();
+        }
+
+        @NotNull
+        List<Responsible> getResponsibles() {
+            try {
+                myLoaded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for previous responsibles", e);
+            }
+            if (myFailure != null) {
+                throw new IllegalStateException("Failed to load previous responsibles from the audit log", myFailure);
+            }
+            synchronized (this) {
+                return new ArrayList<>(myResponsibles);
+            }
+        }
+    }
+
+    private static class Responsible {
+        final long time;
+        final String name;
+        final boolean fromEvent;
+
+        Responsible(long time, String name) {
+            this(time, name, false);
+        }
+
+        private Responsible(long time, String name, boolean fromEvent) {
+            this.time = time;
+            this.name = name;
+            this.fromEvent = fromEvent;
+        }
+
+        @NotNull
+        Responsible asEvent() {
+            return new Responsible(time, name, true);
+        }
+    }
+}
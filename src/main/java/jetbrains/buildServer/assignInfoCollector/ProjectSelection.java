@@ -0,0 +1,99 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.issueTracker.errors.NotFoundException;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Projects of a request: comma separated {@code projectExternalId} and {@code affectedProject},
+ * which adds a project with all its subprojects. Every project is looked up and checked once per request.
+ */
+class ProjectSelection {
+    private ProjectSelection() {
+    }
+
+    /**
+     * @return the requested projects in the order of the parameters, without duplicates
+     * @throws IllegalAccessException if the user can't view one of the listed projects or the root of the subtree,
+     *                                subprojects the user can't view are skipped
+     */
+    @NotNull
+    static List<SProject> resolve(@NotNull ProjectManager projectManager,
+                                  @NotNull SecurityContext securityContext,
+                                  @NotNull HttpServletRequest request) throws IllegalAccessException {
+        return resolve(projectManager, securityContext, request.getParameter("projectExternalId"), request.getParameter("affectedProject"));
+    }
+
+    @NotNull
+    static List<SProject> resolve(@NotNull ProjectManager projectManager,
+                                  @NotNull SecurityContext securityContext,
+                                  @Nullable String projectExternalIds,
+                                  @Nullable String affectedProject) throws IllegalAccessException {
+        AuthorityHolder authorityHolder = securityContext.getAuthorityHolder();
+        Map<String, SProject> result = new LinkedHashMap<>();
+        if (projectExternalIds != null) {
+            for (String projectExternalId : projectExternalIds.split(",")) {
+                if (!projectExternalId.trim().isEmpty()) {
+                    SProject project = findProject(projectManager, projectExternalId.trim());
+                    checkPermission(authorityHolder, project);
+                    result.put(project.getProjectId(), project);
+                }
+            }
+        }
+
+        if (affectedProject != null && !affectedProject.isEmpty()) {
+            SProject root = findProject(projectManager, affectedProject);
+            checkPermission(authorityHolder, root);
+            result.put(root.getProjectId(), root);
+            for (SProject subproject : root.getProjects()) {
+                if (canView(authorityHolder, subproject)) {
+                    result.putIfAbsent(subproject.getProjectId(), subproject);
+                }
+            }
+        }
+
+        if (result.isEmpty()) {
+            throw new NotFoundException("Project with specified externalProjectId not found");
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * @return value of {@code projectExternalId} which selects the same projects
+     */
+    @NotNull
+    static String toParameter(@NotNull List<SProject> projects) {
+        return projects.stream().map(SProject::getExternalId).collect(Collectors.joining(","));
+    }
+
+    @NotNull
+    private static SProject findProject(@NotNull ProjectManager projectManager, @NotNull String projectExternalId) {
+        @Nullable SProject project = projectManager.findProjectByExternalId(projectExternalId); // throws AccessDeniedException if no rights
+        if (project == null) {
+            throw new NotFoundException("Project with specified externalProjectId not found: " + projectExternalId);
+        }
+        return project;
+    }
+
+    private static void checkPermission(@NotNull AuthorityHolder authorityHolder, @NotNull SProject project) throws IllegalAccessException {
+        if (!canView(authorityHolder, project)) {
+            throw new IllegalAccessException("User doesn't have enough permissions. " + Permission.VIEW_PROJECT.getName() + " permission required.");
+        }
+    }
+
+    private static boolean canView(@NotNull AuthorityHolder authorityHolder, @NotNull SProject project) {
+        return authorityHolder.getPermissionsGrantedForProject(project.getProjectId()).contains(Permission.VIEW_PROJECT);
+    }
+}
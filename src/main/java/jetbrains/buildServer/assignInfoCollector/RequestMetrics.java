@@ -0,0 +1,151 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Stage timers and counters of one collector request. Stages running on the collector workers are summed,
+ * so a stage may take longer than the request. Allocations are measured on the thread running the stage.
+ * Published to {@link CollectorMetrics} on {@link #close()}.
+ */
+class RequestMetrics implements AutoCloseable {
+    static final String BUILDS = "builds";
+    static final String TESTS = "tests";
+    static final String BYTES = "bytes";
+    static final String CACHE_HITS = "cacheHits";
+    static final String NOT_MODIFIED = "notModified";
+    static final String REJECTED = "rejected";
+
+    private final CollectorMetrics myCollectorMetrics;
+    private final String myEndpoint;
+    private final long myStartNanos = System.nanoTime();
+
+    private final Map<String, CollectorMetrics.StageStats> myStages = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> myCounters = new ConcurrentHashMap<>();
+
+    RequestMetrics(@NotNull CollectorMetrics collectorMetrics, @NotNull String endpoint) {
+        myCollectorMetrics = collectorMetrics;
+        myEndpoint = endpoint;
+    }
+
+    @NotNull
+    Timer start(@NotNull String stage) {
+        return new Timer(stage);
+    }
+
+    <T> T time(@NotNull String stage, @NotNull Supplier<T> action) {
+        try (Timer ignored = start(stage)) {
+            return action.get();
+        }
+    }
+
+    void count(@NotNull String counter, long delta) {
+        myCounters.computeIfAbsent(counter, c -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * @return stream counting the bytes written to the response
+     */
+    @NotNull
+    OutputStream countBytes(@NotNull OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count(BYTES, 1);
+            }
+
+            @Override
+            public void write(@NotNull byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count(BYTES, len);
+            }
+        };
+    }
+
+    /**
+     * Adds {@code Server-Timing} and {@code X-Collector-Counters} headers once the body is started,
+     * so they include the stages completed before the first byte of the response.
+     */
+    @NotNull
+    HttpServletResponse withTimingHeaders(@NotNull HttpServletResponse response) {
+        return new HttpServletResponseWrapper(response) {
+            private boolean myHeadersWritten;
+
+            @Override
+            public ServletOutputStream getOutputStream() throws IOException {
+                if (!myHeadersWritten) {
+                    myHeadersWritten = true;
+                    setHeader("Server-Timing", getServerTiming());
+                    setHeader("X-Collector-Counters", getCounters());
+                }
+                return super.getOutputStream();
+            }
+        };
+    }
+
+    /**
+     * @return value of the {@code Server-Timing} header with the stages completed so far
+     */
+    @NotNull
+    String getServerTiming() {
+        StringBuilder result = new StringBuilder();
+        new TreeMap<>(myStages).forEach((stage, stats) -> {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(stage).append(";dur=").append(TimeUnit.NANOSECONDS.toMicros(stats.totalNanos.sum()) / 1000.0);
+        });
+        return result.toString();
+    }
+
+    /**
+     * @return counters collected so far as {@code name=value} pairs
+     */
+    @NotNull
+    String getCounters() {
+        StringBuilder result = new StringBuilder();
+        new TreeMap<>(myCounters).forEach((counter, value) -> {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(counter).append('=').append(value.sum());
+        });
+        return result.toString();
+    }
+
+    @Override
+    public void close() {
+        myStages.computeIfAbsent("total", s -> new CollectorMetrics.StageStats()).add(System.nanoTime() - myStartNanos, 0);
+        count("requests", 1);
+        myCollectorMetrics.publish(myEndpoint, myStages, myCounters);
+    }
+
+    class Timer implements AutoCloseable {
+        private final String myStage;
+        private final long myStartNanos = System.nanoTime();
+        private final long myStartAllocated = CollectorMetrics.getAllocatedBytes();
+
+        private Timer(@NotNull String stage) {
+            myStage = stage;
+        }
+
+        @Override
+        public void close() {
+            myStages.computeIfAbsent(myStage, s -> new CollectorMetrics.StageStats())
+                    .add(System.nanoTime() - myStartNanos, CollectorMetrics.getAllocatedBytes() - myStartAllocated);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content encoding of a response, the one with the highest {@code Accept-Encoding} quality is chosen,
+ * gzip over deflate on a tie. Streams are created with sync flush, so streamed responses still arrive element by element.
+ */
+enum ResponseEncoding {
+    IDENTITY(null),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    @Nullable private final String myName;
+
+    ResponseEncoding(@Nullable String name) {
+        myName = name;
+    }
+
+    @NotNull
+    static ResponseEncoding select(@NotNull HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+
+        ResponseEncoding result = IDENTITY;
+        double resultQuality = 0;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double quality = parseQuality(parts);
+            ResponseEncoding encoding = "gzip".equals(coding) || "x-gzip".equals(coding) ? GZIP
+                    : "deflate".equals(coding) ? DEFLATE
+                    : null;
+            if (encoding != null && (quality > resultQuality || quality == resultQuality && encoding == GZIP)) {
+                result = encoding;
+                resultQuality = quality;
+            }
+        }
+        return resultQuality > 0 ? result : IDENTITY;
+    }
+
+    /**
+     * @return the name of the encoding, a part of the ETag of the response
+     */
+    @NotNull
+    String getName() {
+        return myName == null ? "identity" : myName;
+    }
+
+    /**
+     * Sets {@code Content-Encoding} and opens the body of the response, the bytes are counted as sent, after the encoding.
+     * {@code Vary: Accept-Encoding} is up to the caller, it is needed on uncompressed and not modified responses too.
+     */
+    @NotNull
+    OutputStream open(@NotNull HttpServletResponse response, @NotNull RequestMetrics metrics) throws IOException {
+        if (myName != null) {
+            response.setHeader("Content-Encoding", myName);
+        }
+        return wrap(metrics.countBytes(response.getOutputStream()));
+    }
+
+    @NotNull
+    private OutputStream wrap(@NotNull OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE, true);
+            case DEFLATE:
+                return new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION), BUFFER_SIZE, true) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        def.end();
+                    }
+                };
+            default:
+                return out;
+        }
+    }
+
+    private static double parseQuality(@NotNull String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,142 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.STestRun;
+import jetbrains.buildServer.serverSide.stat.CombinedTestOutputProcessor;
+import jetbrains.buildServer.serverSide.stat.LimitedStacktraceProcessor;
+import jetbrains.buildServer.serverSide.stat.TestOutputCollector;
+import org.jetbrains.annotations.NotNull;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.*;
+
+/**
+ * Loads stack traces of the failed test runs of a build within a length budget.
+ * The output processor stops collecting once {@link #maxLength} characters are read,
+ * then only the top and bottom frames are kept if frame limits are set.
+ */
+class StacktraceExtractor {
+    private static final String MAX_LENGTH_PROPERTY = "teamcity.assignInfoCollector.stacktrace.maxLength";
+    private static final String TOP_FRAMES_PROPERTY = "teamcity.assignInfoCollector.stacktrace.topFrames";
+    private static final String BOTTOM_FRAMES_PROPERTY = "teamcity.assignInfoCollector.stacktrace.bottomFrames";
+    // defaults of the <property>.max caps
+    private static final int MAX_LENGTH_MAX = 100_000;
+    private static final int FRAMES_MAX = 1000;
+
+    // 0 means the TeamCity default length and no frame truncation
+    final int maxLength;
+    final int topFrames;
+    final int bottomFrames;
+
+    StacktraceExtractor(int maxLength, int topFrames, int bottomFrames) {
+        this.maxLength = maxLength;
+        this.topFrames = topFrames;
+        this.bottomFrames = bottomFrames;
+    }
+
+    /**
+     * The parameters are read as {@link Limits}, the server properties are capped by their {@code .max} properties.
+     */
+    @NotNull
+    static StacktraceExtractor create(@NotNull HttpServletRequest request) {
+        return new StacktraceExtractor(
+                Limits.getNonNegative(request, "stacktraceMaxLength", MAX_LENGTH_PROPERTY, MAX_LENGTH_MAX),
+                Limits.getNonNegative(request, "stacktraceTopFrames", TOP_FRAMES_PROPERTY, FRAMES_MAX),
+                Limits.getNonNegative(request, "stacktraceBottomFrames", BOTTOM_FRAMES_PROPERTY, FRAMES_MAX));
+    }
+
+    @NotNull
+    static StacktraceExtractor getDefault() {
+        return new StacktraceExtractor(Limits.getNonNegativeDefault(MAX_LENGTH_PROPERTY, MAX_LENGTH_MAX),
+                Limits.getNonNegativeDefault(TOP_FRAMES_PROPERTY, FRAMES_MAX),
+                Limits.getNonNegativeDefault(BOTTOM_FRAMES_PROPERTY, FRAMES_MAX));
+    }
+
+    /**
+     * @return true if the stack traces are the same as with the server defaults, only such ones are cached
+     */
+    boolean isServerDefault() {
+        StacktraceExtractor defaults = getDefault();
+        return maxLength == defaults.maxLength && topFrames == defaults.topFrames && bottomFrames == defaults.bottomFrames;
+    }
+
+    /**
+     * Output of all runs is read through one collector, in the order of test run ids,
+     * which is the order the output is stored in.
+     *
+     * @return testRunId -> stack trace
+     */
+    @NotNull
+    Map<Integer, String> extract(@NotNull SBuild build, @NotNull Collection<STestRun> testRuns) {
+        Map<Integer, String> result = new HashMap<>();
+        if (testRuns.isEmpty()) {
+            return result;
+        }
+
+        List<STestRun> sortedRuns = new ArrayList<>(testRuns);
+        sortedRuns.sort(Comparator.comparingInt(STestRun::getTestRunId));
+
+        TestOutputCollector testOutputCollector = new TestOutputCollector(build);
+        for (STestRun testRun : sortedRuns) {
+            result.put(testRun.getTestRunId(), extract(testOutputCollector, testRun.getTestRunId()));
+        }
+        return result;
+    }
+
+    @NotNull
+    private String extract(@NotNull TestOutputCollector testOutputCollector, int testRunId) {
+        LimitedStacktraceProcessor outputProcessor = maxLength > 0
+                ? new LimitedStacktraceProcessor(maxLength)
+                : new LimitedStacktraceProcessor();
+        testOutputCollector.processOutput(testRunId, outputProcessor);
+
+        StringBuilder stackTrace = outputProcessor.getStacktrace();
+        String result = truncateFrames(stackTrace.toString());
+        if (outputProcessor.isMaxLenExceeded()) {
+            result += "\r\n" + CombinedTestOutputProcessor.TEXT_MAX_LENGTH_EXCEEDED_MSG + "\r\n";
+        }
+        return result;
+    }
+
+    /**
+     * In every run of consecutive frames, replaces the frames between the first {@link #topFrames}
+     * and the last {@link #bottomFrames} ones with a single line with the number of omitted frames.
+     * Other lines, such as the messages of causes and {@code ... N more}, are always kept.
+     */
+    @NotNull
+    String truncateFrames(@NotNull String stackTrace) {
+        if (topFrames <= 0 && bottomFrames <= 0) {
+            return stackTrace;
+        }
+
+        int top = Math.max(0, topFrames);
+        int bottom = Math.max(0, bottomFrames);
+        List<String> lines = Arrays.asList(stackTrace.split("\n", -1));
+        List<String> result = new ArrayList<>(lines.size());
+        int runStart = 0;
+        for (int i = 0; i <= lines.size(); i++) {
+            if (i < lines.size() && isFrame(lines.get(i))) {
+                continue;
+            }
+
+            // lines[runStart, i) are frames
+            int omitted = i - runStart - top - bottom;
+            if (omitted > 0) {
+                result.addAll(lines.subList(runStart, runStart + top));
+                result.add("\t... " + omitted + " frames omitted");
+                result.addAll(lines.subList(i - bottom, i));
+            } else {
+                result.addAll(lines.subList(runStart, i));
+            }
+            if (i < lines.size()) {
+                result.add(lines.get(i));
+            }
+            runStart = i + 1;
+        }
+        return String.join("\n", result);
+    }
+
+    private static boolean isFrame(@NotNull String line) {
+        return line.trim().startsWith("at ");
+    }
+}
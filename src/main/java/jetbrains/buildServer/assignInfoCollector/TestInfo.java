@@ -1,9 +1,6 @@
 package jetbrains.buildServer.assignInfoCollector;
 
 import jetbrains.buildServer.serverSide.STestRun;
-import jetbrains.buildServer.serverSide.stat.CombinedTestOutputProcessor;
-import jetbrains.buildServer.serverSide.stat.LimitedStacktraceProcessor;
-import jetbrains.buildServer.serverSide.stat.TestOutputCollector;
 
 import java.util.List;
 
@@ -20,7 +17,10 @@ class TestInfo {
     private boolean isFixed;
     private List<String> previousResponsible;
 
-    TestInfo(STestRun testRun, TestOutputCollector testOutputCollector) {
+    /**
+     * @param stacktrace stack trace loaded by {@link StacktraceExtractor}, null if not requested
+     */
+    TestInfo(STestRun testRun, String stacktrace) {
         this.testRunId = testRun.getTestRunId();
         this.testNameId = testRun.getTest().getTestNameId();
         this.className = testRun.getTest().getClass().getCanonicalName();
@@ -30,18 +30,7 @@ class TestInfo {
         this.duration = testRun.getDuration();
         this.orderId = testRun.getOrderId();
         this.isFixed = testRun.isFixed();
-        this.stacktrace = loadStackTrace(testOutputCollector);
-    }
-
-    private String loadStackTrace(TestOutputCollector testOutputCollector) {
-        LimitedStacktraceProcessor outputProcessor = new LimitedStacktraceProcessor();
-        testOutputCollector.processOutput(testRunId, outputProcessor);
-
-        StringBuilder stackTrace = outputProcessor.getStacktrace();
-        if (outputProcessor.isMaxLenExceeded()) {
-            stackTrace.append("\r\n").append(CombinedTestOutputProcessor.TEXT_MAX_LENGTH_EXCEEDED_MSG).append("\r\n");
-        }
-        return stackTrace.toString();
+        this.stacktrace = stacktrace;
     }
 
     public void setPreviousResponsible(List<String> previousResponsible) {
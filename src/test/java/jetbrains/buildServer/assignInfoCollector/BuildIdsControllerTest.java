@@ -0,0 +1,166 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.serverSide.SBuild;
+import jetbrains.buildServer.serverSide.STestRun;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+public class BuildIdsControllerTest {
+    private static final long OVERLAP = 60_000;
+
+    @Test
+    public void noPageParametersSelectAllTests() {
+        BuildIdsController.Page page = BuildIdsController.Page.create(request(), 100);
+
+        assertEquals(page.offset, 0);
+        assertEquals(page.end, 100);
+        assertFalse(page.isLimited());
+        assertNull(page.getNextOffset());
+    }
+
+    @Test
+    public void limitedPageHasNextOffset() {
+        BuildIdsController.Page page = BuildIdsController.Page.create(request("offset", "10", "limit", "20"), 100);
+
+        assertEquals(page.offset, 10);
+        assertEquals(page.end, 30);
+        assertTrue(page.isLimited());
+        assertEquals(page.getNextOffset(), Integer.valueOf(30));
+    }
+
+    @Test
+    public void lastPageHasNoNextOffset() {
+        BuildIdsController.Page page = BuildIdsController.Page.create(request("offset", "90", "limit", "20"), 100);
+
+        assertEquals(page.end, 100);
+        assertNull(page.getNextOffset());
+    }
+
+    @Test
+    public void offsetOnlyIsLimitedToTheEnd() {
+        BuildIdsController.Page page = BuildIdsController.Page.create(request("offset", "40"), 100);
+
+        assertEquals(page.offset, 40);
+        assertEquals(page.end, 100);
+        assertTrue(page.isLimited());
+        assertNull(page.getNextOffset());
+    }
+
+    @Test
+    public void pageAfterTheEndIsEmpty() {
+        BuildIdsController.Page page = BuildIdsController.Page.create(
+                request("offset", String.valueOf(Integer.MAX_VALUE - 1), "limit", String.valueOf(Integer.MAX_VALUE)), 100);
+
+        assertEquals(page.offset, 100);
+        assertEquals(page.end, 100);
+        assertNull(page.getNextOffset());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void negativeOffsetIsRejected() {
+        BuildIdsController.Page.create(request("offset", "-1"), 100);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void zeroLimitIsRejected() {
+        BuildIdsController.Page.create(request("limit", "0"), 100);
+    }
+
+    @Test
+    public void datesAreParsedInAllFormats() {
+        assertEquals(BuildIdsController.Filter.parseDate("1580428800000"), new Date(1580428800000L));
+        assertEquals(BuildIdsController.Filter.parseDate("2020-01-31"), new Date(1580428800000L));
+        assertEquals(BuildIdsController.Filter.parseDate("2020-01-31T01:00:00+01:00"), new Date(1580428800000L));
+        assertNull(BuildIdsController.Filter.parseDate(""));
+        assertNull(BuildIdsController.Filter.parseDate(null));
+    }
+
+    @Test
+    public void buildTypesAreSplit() {
+        BuildIdsController.Filter filter = BuildIdsController.Filter.create(request("buildTypeId", "Bt1,Bt2"), OVERLAP);
+
+        assertEquals(filter.buildTypeIds, new HashSet<>(Arrays.asList("Bt1", "Bt2")));
+        assertNull(filter.finishedSince);
+    }
+
+    @Test
+    public void dateRangeAppliesToStart() {
+        BuildIdsController.Filter filter = BuildIdsController.Filter.create(request("fromDate", "1000", "toDate", "2000"), OVERLAP);
+
+        assertFalse(filter.acceptsFirstFailed(build(999, 3000L)));
+        assertTrue(filter.acceptsFirstFailed(build(1000, 3000L)));
+        assertTrue(filter.acceptsFirstFailed(build(1999, null)));
+        assertFalse(filter.acceptsFirstFailed(build(2000, 3000L)));
+    }
+
+    @Test
+    public void sinceAppliesToFinishWithOverlap() {
+        long since = 1_000_000;
+        BuildIdsController.Filter filter = BuildIdsController.Filter.create(request("since", String.valueOf(since)), OVERLAP);
+
+        assertEquals(filter.finishedSince, new Date(since - OVERLAP));
+        // a build queued long ago which finished after the cursor is not skipped
+        assertTrue(filter.acceptsFirstFailed(build(1, since + 1)));
+        assertTrue(filter.acceptsFirstFailed(build(1, since - OVERLAP)));
+        assertFalse(filter.acceptsFirstFailed(build(1, since - OVERLAP - 1)));
+        // returned by a later call, once finished
+        assertFalse(filter.acceptsFirstFailed(build(since + 1, null)));
+    }
+
+    @Test
+    public void lastRunFinishedBeforeSinceIsNotExpanded() {
+        long since = 1_000_000;
+        BuildIdsController.Filter filter = BuildIdsController.Filter.create(request("since", String.valueOf(since)), OVERLAP);
+
+        // the first failed build of an old last run finished before it, so its first failed build isn't looked up
+        assertFalse(filter.acceptsLastRun(testRun(build(1, since - OVERLAP - 1))));
+        assertTrue(filter.acceptsLastRun(testRun(build(1, since - OVERLAP))));
+        assertTrue(filter.acceptsLastRun(testRun(build(since + 1, null))));
+    }
+
+    @NotNull
+    private static HttpServletRequest request(String... parameters) {
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < parameters.length; i += 2) {
+            result.put(parameters[i], parameters[i + 1]);
+        }
+        return ServletStubs.get(result);
+    }
+
+    @NotNull
+    private static STestRun testRun(@NotNull SBuild build) {
+        return (STestRun) Proxy.newProxyInstance(BuildIdsControllerTest.class.getClassLoader(), new Class[]{STestRun.class},
+                (proxy, method, args) -> {
+                    if ("getBuild".equals(method.getName())) {
+                        return build;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @NotNull
+    private static SBuild build(long startTime, @Nullable Long finishTime) {
+        return (SBuild) Proxy.newProxyInstance(BuildIdsControllerTest.class.getClassLoader(), new Class[]{SBuild.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getServerStartDate":
+                            return new Date(startTime);
+                        case "getFinishDate":
+                            return finishTime == null ? null : new Date(finishTime);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
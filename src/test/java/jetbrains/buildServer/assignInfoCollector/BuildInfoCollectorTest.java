@@ -0,0 +1,64 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+
+public class BuildInfoCollectorTest {
+    private static final long[] TEST_NAME_IDS = {1, 2, 3, 4, 5, 6};
+    // test 3 didn't run in the build
+    private static final Map<Long, TestInfo> RUNS = runs(1, 2, 4, 5, 6);
+    private static final Set<Long> INVESTIGATED = new HashSet<>(Arrays.asList(2L, 5L, 6L));
+
+    @Test
+    public void limitCountsInvestigatedRunsOnly() {
+        BuildInfoCollector.TestSelection<TestInfo> selection = select(TEST_NAME_IDS, 2);
+
+        assertEquals(testNameIds(selection.investigated), Arrays.asList(2L, 5L));
+        assertEquals(testNameIds(selection.found), Arrays.asList(1L, 2L, 4L, 5L));
+        assertEquals(selection.checkedTestNameIds, Arrays.asList(1L, 2L, 3L, 4L, 5L));
+    }
+
+    @Test
+    public void cachedBuildReturnsTheTestsOfTheExtractedOne() {
+        // the cache keeps every found run of the checked tests, see BuildInfoCollector.createBuildInfo
+        BuildInfoCollector.TestSelection<TestInfo> extracted = select(TEST_NAME_IDS, Integer.MAX_VALUE);
+        BuildInfoCache.CachedBuild cached = new BuildInfoCache.CachedBuild("Project", "key", null);
+        cached.checkedTestNameIds.addAll(extracted.checkedTestNameIds);
+        extracted.found.forEach(test -> cached.tests.put(test.getTestNameId(), test));
+
+        for (int limit = 1; limit <= TEST_NAME_IDS.length; limit++) {
+            for (long[] testNameIds : Arrays.asList(TEST_NAME_IDS, new long[]{6, 1, 5, 2}, new long[]{1, 4})) {
+                assertEquals(testNameIds(cached.getTests(testNameIds, limit, INVESTIGATED::contains)),
+                        testNameIds(select(testNameIds, limit).investigated),
+                        "limit " + limit + ", tests " + Arrays.toString(testNameIds));
+            }
+        }
+    }
+
+    @NotNull
+    private static BuildInfoCollector.TestSelection<TestInfo> select(@NotNull long[] testNameIds, int limit) {
+        return BuildInfoCollector.TestSelection.select(testNameIds, limit, RUNS::get,
+                test -> INVESTIGATED.contains(test.getTestNameId()));
+    }
+
+    @NotNull
+    private static Map<Long, TestInfo> runs(long... testNameIds) {
+        Gson gson = new Gson();
+        Map<Long, TestInfo> result = new HashMap<>();
+        for (long testNameId : testNameIds) {
+            result.put(testNameId, gson.fromJson("{testRunId: " + testNameId * 10 + ", testNameId: " + testNameId + "}", TestInfo.class));
+        }
+        return result;
+    }
+
+    @NotNull
+    private static List<Long> testNameIds(@NotNull List<TestInfo> tests) {
+        return tests.stream().map(TestInfo::getTestNameId).collect(Collectors.toList());
+    }
+}
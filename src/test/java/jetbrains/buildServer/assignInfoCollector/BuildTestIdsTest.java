@@ -0,0 +1,116 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+
+public class BuildTestIdsTest {
+    @Test
+    public void textGroupsTestsByBuildInFirstSeenOrder() {
+        BuildTestIds ids = BuildTestIds.parseText("3_30, 1_10\n3_31,,2_20\n");
+
+        assertEquals(ids.toMap(), map(3, Arrays.asList(30L, 31L), 1, Collections.singletonList(10L), 2, Collections.singletonList(20L)));
+    }
+
+    @Test
+    public void textReaderParsesAsString() throws IOException {
+        String text = "3_30\n1_10,3_31";
+
+        assertEquals(BuildTestIds.parseText(new StringReader(text)).toMap(), BuildTestIds.parseText(text).toMap());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void textRejectsPairWithoutSeparator() {
+        BuildTestIds.parseText("1_10,20");
+    }
+
+    @Test
+    public void binaryDecodesNegativeDeltas() throws IOException {
+        // (100, 5), (90, 7), (100, 3): the second pair goes back by 10 builds, the third one back by 4 tests
+        byte[] body = encode(100, 5, -10, 2, 10, -4);
+
+        BuildTestIds ids = BuildTestIds.parseBinary(new ByteArrayInputStream(body));
+
+        assertEquals(ids.toMap(), map(100, Arrays.asList(5L, 3L), 90, Collections.singletonList(7L)));
+    }
+
+    @Test
+    public void binaryDecodesMultiByteValues() throws IOException {
+        long buildId = 123_456_789_012L;
+        BuildTestIds ids = BuildTestIds.parseBinary(new ByteArrayInputStream(encode(buildId, -300)));
+
+        assertEquals(ids.getBuildId(0), buildId);
+        assertEquals(ids.getTestIds(0), new long[]{-300});
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void binaryRejectsPairWithoutTestId() throws IOException {
+        BuildTestIds.parseBinary(new ByteArrayInputStream(encode(100)));
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void binaryRejectsTruncatedVarint() throws IOException {
+        byte[] body = encode(100, 300);
+
+        BuildTestIds.parseBinary(new ByteArrayInputStream(Arrays.copyOf(body, body.length - 1)));
+    }
+
+    @Test
+    public void contentTypeSelectsBinaryOrText() throws IOException {
+        assertEquals(BuildTestIds.parse(BuildTestIds.BINARY_CONTENT_TYPE, new ByteArrayInputStream(encode(1, 10))).toMap(),
+                map(1, Collections.singletonList(10L)));
+        assertEquals(BuildTestIds.parse("text/plain; charset=US-ASCII", new ByteArrayInputStream("1_10".getBytes())).toMap(),
+                map(1, Collections.singletonList(10L)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "ids parameter is required")
+    public void requestRequiresIds() throws IOException {
+        BuildTestIds.read(ServletStubs.get(Collections.emptyMap()));
+    }
+
+    @Test
+    public void requestReadsIdsParameter() throws IOException {
+        BuildTestIds ids = BuildTestIds.read(ServletStubs.get(Collections.singletonMap("ids", "1_10,1_11")));
+
+        assertEquals(ids.toMap(), map(1, Arrays.asList(10L, 11L)));
+    }
+
+    /**
+     * @return zigzag varints of the values, as the binary body expects them
+     */
+    @NotNull
+    private static byte[] encode(long... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long value : values) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                out.write((int) (zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            out.write((int) zigzag);
+        }
+        return out.toByteArray();
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    private static Map<Long, List<Long>> map(Object... buildsAndTests) {
+        Map<Long, List<Long>> result = new LinkedHashMap<>();
+        for (int i = 0; i < buildsAndTests.length; i += 2) {
+            result.put(((Integer) buildsAndTests[i]).longValue(), (List<Long>) buildsAndTests[i + 1]);
+        }
+        return result;
+    }
+}
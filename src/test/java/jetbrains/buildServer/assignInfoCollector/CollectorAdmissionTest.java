@@ -0,0 +1,143 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.testng.Assert.*;
+
+public class CollectorAdmissionTest {
+    private static final String MAX_CONCURRENT_PROPERTY = "teamcity.assignInfoCollector.admission.maxConcurrent";
+    private static final String MAX_QUEUED_PROPERTY = "teamcity.assignInfoCollector.admission.maxQueued";
+    private static final String MAX_WAIT_PROPERTY = "teamcity.assignInfoCollector.admission.maxWaitMs";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private CollectorAdmission myAdmission;
+    private ExecutorService myExecutor;
+
+    @BeforeMethod
+    public void setUp() {
+        // requests without a user are told apart by their address
+        AuthorityHolder authorityHolder = (AuthorityHolder) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{AuthorityHolder.class}, (proxy, method, args) -> null);
+        SecurityContext securityContext = (SecurityContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{SecurityContext.class},
+                (proxy, method, args) -> "getAuthorityHolder".equals(method.getName()) ? authorityHolder : null);
+        myAdmission = new CollectorAdmission(securityContext);
+        myExecutor = Executors.newCachedThreadPool();
+        System.setProperty(MAX_WAIT_PROPERTY, String.valueOf(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS)));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        myExecutor.shutdownNow();
+        System.clearProperty(MAX_CONCURRENT_PROPERTY);
+        System.clearProperty(MAX_QUEUED_PROPERTY);
+        System.clearProperty(MAX_WAIT_PROPERTY);
+    }
+
+    @Test
+    public void fullQueueRejectsWithRetryAfter() throws Exception {
+        System.setProperty(MAX_CONCURRENT_PROPERTY, "1");
+        System.setProperty(MAX_QUEUED_PROPERTY, "1");
+
+        CollectorAdmission.Permit running = acquire("a", new ConcurrentHashMap<>());
+        Future<CollectorAdmission.Permit> waiting = acquireAsync("b", new ConcurrentHashMap<>());
+        awaitWaiting(1);
+
+        Map<String, String> rejected = new ConcurrentHashMap<>();
+        assertNull(acquire("a", rejected));
+        assertEquals(rejected.get(ServletStubs.STATUS), "429");
+        assertTrue(Long.parseLong(rejected.get("Retry-After")) >= 1);
+
+        running.close();
+        assertNotNull(waiting.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void waitingTooLongRejects() throws Exception {
+        System.setProperty(MAX_CONCURRENT_PROPERTY, "1");
+        System.setProperty(MAX_WAIT_PROPERTY, "100");
+
+        CollectorAdmission.Permit running = acquire("a", new ConcurrentHashMap<>());
+        Map<String, String> rejected = new ConcurrentHashMap<>();
+        assertNull(acquire("b", rejected));
+        assertEquals(rejected.get(ServletStubs.STATUS), "429");
+        assertNotNull(rejected.get("Retry-After"));
+        assertEquals(myAdmission.getWaitingCount(), 0);
+
+        running.close();
+        assertNotNull(acquire("b", new ConcurrentHashMap<>()));
+    }
+
+    @Test
+    public void freedSlotGoesToUserWithFewestRunning() throws Exception {
+        System.setProperty(MAX_CONCURRENT_PROPERTY, "2");
+
+        CollectorAdmission.Permit runningA = acquire("a", new ConcurrentHashMap<>());
+        CollectorAdmission.Permit runningX = acquire("x", new ConcurrentHashMap<>());
+        Future<CollectorAdmission.Permit> waitingA = acquireAsync("a", new ConcurrentHashMap<>());
+        awaitWaiting(1);
+        Future<CollectorAdmission.Permit> waitingB = acquireAsync("b", new ConcurrentHashMap<>());
+        awaitWaiting(2);
+
+        // b has nothing running, a has one request running, so b goes first although it came later
+        runningX.close();
+        assertNotNull(waitingB.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(waitingA.isDone());
+
+        runningA.close();
+        assertNotNull(waitingA.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fullQueueEvictsLatestRequestOfBusiestUser() throws Exception {
+        System.setProperty(MAX_CONCURRENT_PROPERTY, "1");
+        System.setProperty(MAX_QUEUED_PROPERTY, "2");
+
+        CollectorAdmission.Permit running = acquire("a", new ConcurrentHashMap<>());
+        Future<CollectorAdmission.Permit> firstWaiting = acquireAsync("a", new ConcurrentHashMap<>());
+        awaitWaiting(1);
+        Map<String, String> evicted = new ConcurrentHashMap<>();
+        Future<CollectorAdmission.Permit> lastWaiting = acquireAsync("a", evicted);
+        awaitWaiting(2);
+
+        Future<CollectorAdmission.Permit> other = acquireAsync("b", new ConcurrentHashMap<>());
+        assertNull(lastWaiting.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(evicted.get(ServletStubs.STATUS), "429");
+        awaitWaiting(2);
+
+        running.close();
+        assertNotNull(firstWaiting.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(other.isDone());
+    }
+
+    private CollectorAdmission.Permit acquire(@NotNull String address, @NotNull Map<String, String> recorded) throws Exception {
+        return myAdmission.acquire(ServletStubs.request("GET", Collections.emptyMap(), Collections.emptyMap(), address),
+                ServletStubs.response(recorded),
+                new CollectorMetrics().start("test"));
+    }
+
+    @NotNull
+    private Future<CollectorAdmission.Permit> acquireAsync(@NotNull String address, @NotNull Map<String, String> recorded) {
+        return myExecutor.submit(() -> acquire(address, recorded));
+    }
+
+    private void awaitWaiting(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (myAdmission.getWaitingCount() != count) {
+            if (System.nanoTime() > deadline) {
+                fail("Expected " + count + " waiting requests, got " + myAdmission.getWaitingCount());
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonPrimitive;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.testng.Assert.*;
+
+public class ColumnarExportTest {
+    private static final Pattern HEADER = Pattern.compile("\\{'descr': '([^']+)', 'fortran_order': False, 'shape': \\((\\d+),\\), } *\n");
+
+    private final Gson myGson = new Gson();
+
+    @Test
+    public void archiveHasColumnsOfTestsWithPreviousResponsibles() throws IOException {
+        ColumnarExport export = new ColumnarExport();
+        export.add(build("{buildId: 1, isDefaultBranch: true, branchName: 'main', tests: [" +
+                "{testRunId: 10, testNameId: 100, className: 'Foo', isFixed: true, previousResponsible: ['alice']}," +
+                "{testRunId: 11, testNameId: 101, className: 'Bar'}," +
+                "{testRunId: 12, testNameId: 102, className: 'Foo', previousResponsible: ['bob', '\u0109arlo']}]}"));
+        export.add(build("{buildId: 2, tests: [{testRunId: 20, testNameId: 100, previousResponsible: ['alice']}]}"));
+        export.add(build("{buildId: 3}"));
+
+        Map<String, Npy> archive = read(export);
+
+        assertEquals(archive.get("buildId").longs(), new long[]{1, 1, 2});
+        assertEquals(archive.get("testRunId").longs(), new long[]{10, 12, 20});
+        assertEquals(archive.get("testNameId").longs(), new long[]{100, 102, 100});
+        // missing values
+        assertEquals(archive.get("changeCount").longs(), new long[]{-1, -1, -1});
+        assertEquals(archive.get("clientDate").descr, "<M8[ms]");
+        assertEquals(archive.get("clientDate").longs(), new long[]{Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE});
+
+        assertEquals(archive.get("isDefaultBranch").descr, "|i1");
+        assertEquals(archive.get("isDefaultBranch").data, new byte[]{1, 1, 0});
+        assertEquals(archive.get("isFixed").data, new byte[]{1, 0, 0});
+
+        assertEquals(strings(archive, "className"), Arrays.asList("Foo", "Foo", null));
+        assertEquals(strings(archive, "branchName"), Arrays.asList("main", "main", null));
+        assertEquals(strings(archive, "previousResponsible"), Arrays.asList("[\"alice\"]", "[\"bob\",\"\u0109arlo\"]", "[\"alice\"]"));
+        // distinct values are stored once
+        assertEquals(archive.get("previousResponsible.offsets").longs(), new long[]{0, 9, 25});
+    }
+
+    @Test
+    public void everyColumnIsWrittenForEmptyExport() throws IOException {
+        Map<String, Npy> archive = read(new ColumnarExport());
+
+        Set<String> columns = new LinkedHashSet<>();
+        for (Map.Entry<String, Npy> entry : archive.entrySet()) {
+            if (!entry.getKey().contains(".")) {
+                columns.add(entry.getKey());
+                assertEquals(entry.getValue().shape, 0, entry.getKey());
+            }
+        }
+        // all_keys of scripts/data_loader.py
+        assertEquals(columns, new LinkedHashSet<>(Arrays.asList("buildId", "clientDate", "committers", "changeCount",
+                "comment", "triggeredBy", "description", "isDefaultBranch", "branchName", "changes", "reasons",
+                "testCount", "testRunId", "testNameId", "stacktrace", "className", "testMethod", "testClass",
+                "testSuite", "duration", "orderId", "isFixed", "previousResponsible")));
+        assertEquals(archive.get("className.offsets").longs(), new long[]{0});
+    }
+
+    @Test
+    public void missingBooleansAreNotFalse() throws IOException {
+        ColumnarExport.BooleanColumn column = new ColumnarExport.BooleanColumn();
+        column.add(new JsonPrimitive(true));
+        column.add(null);
+        column.add(new JsonPrimitive(false));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            column.write(zip, "isFixed");
+        }
+        Npy npy = read(out.toByteArray()).get("isFixed");
+
+        assertEquals(npy.descr, "|i1");
+        assertEquals(npy.data, new byte[]{1, -1, 0});
+    }
+
+    @NotNull
+    private BuildInfo build(@NotNull String json) {
+        // the fields are set the way the serialized build has them
+        return myGson.fromJson(json, BuildInfo.class);
+    }
+
+    @NotNull
+    private static List<String> strings(@NotNull Map<String, Npy> archive, @NotNull String column) {
+        Npy codes = archive.get(column);
+        long[] offsets = archive.get(column + ".offsets").longs();
+        byte[] data = archive.get(column + ".data").data;
+        assertEquals(archive.get(column + ".data").descr, "|u1");
+        assertEquals(offsets[offsets.length - 1], data.length);
+
+        assertEquals(codes.descr, "<i4");
+        ByteBuffer buffer = ByteBuffer.wrap(codes.data).order(ByteOrder.LITTLE_ENDIAN);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < codes.shape; i++) {
+            int code = buffer.getInt();
+            result.add(code < 0 ? null : new String(data, (int) offsets[code], (int) (offsets[code + 1] - offsets[code]), StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    @NotNull
+    private static Map<String, Npy> read(@NotNull ColumnarExport export) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.write(out);
+        return read(out.toByteArray());
+    }
+
+    @NotNull
+    private static Map<String, Npy> read(@NotNull byte[] archive) throws IOException {
+        Map<String, Npy> result = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                assertTrue(entry.getName().endsWith(".npy"), entry.getName());
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = zip.read(buffer)) != -1) {
+                    content.write(buffer, 0, read);
+                }
+                result.put(entry.getName().substring(0, entry.getName().length() - ".npy".length()), new Npy(content.toByteArray()));
+            }
+        }
+        return result;
+    }
+
+    private static class Npy {
+        final String descr;
+        final int shape;
+        final byte[] data;
+
+        Npy(@NotNull byte[] content) {
+            assertEquals(Arrays.copyOf(content, 8), new byte[]{(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0});
+            int headerLength = (content[8] & 0xFF) | (content[9] & 0xFF) << 8;
+            // the data is aligned to 64 bytes
+            assertEquals((10 + headerLength) % 64, 0);
+
+            Matcher header = HEADER.matcher(new String(content, 10, headerLength, StandardCharsets.US_ASCII));
+            assertTrue(header.matches(), header.toString());
+            descr = header.group(1);
+            shape = Integer.parseInt(header.group(2));
+            data = Arrays.copyOfRange(content, 10 + headerLength, content.length);
+            assertEquals(data.length, shape * itemSize(descr));
+        }
+
+        @NotNull
+        long[] longs() {
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            long[] result = new long[shape];
+            for (int i = 0; i < shape; i++) {
+                result[i] = buffer.getLong();
+            }
+            return result;
+        }
+
+        private static int itemSize(@NotNull String descr) {
+            Matcher size = Pattern.compile("[<|][a-zA-Z](\\d+).*").matcher(descr);
+            assertTrue(size.matches(), descr);
+            return Integer.parseInt(size.group(1));
+        }
+    }
+}
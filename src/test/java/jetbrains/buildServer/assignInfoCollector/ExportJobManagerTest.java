@@ -0,0 +1,211 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import jetbrains.buildServer.serverSide.ServerPaths;
+import jetbrains.buildServer.serverSide.auth.SecurityContextEx;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public class ExportJobManagerTest {
+    private static final String CHUNK_SIZE_PROPERTY = "teamcity.assignInfoCollector.export.chunkSize";
+    private static final String RETENTION_PROPERTY = "teamcity.assignInfoCollector.export.retentionHours";
+    private static final String MAX_JOBS_PROPERTY = "teamcity.assignInfoCollector.export.maxJobs";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final Gson myGson = new Gson();
+    private final List<ExportJobManager> myManagers = new ArrayList<>();
+    // build ids in the order they were collected
+    private final List<Long> myCollected = Collections.synchronizedList(new ArrayList<>());
+    private File myDataDir;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        myDataDir = Files.createTempDirectory("exportJobs").toFile();
+        myCollected.clear();
+        System.setProperty(CHUNK_SIZE_PROPERTY, "2");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        myManagers.forEach(ExportJobManager::destroy);
+        myManagers.clear();
+        System.clearProperty(CHUNK_SIZE_PROPERTY);
+        System.clearProperty(RETENTION_PROPERTY);
+        System.clearProperty(MAX_JOBS_PROPERTY);
+        try (Stream<Path> files = Files.walk(myDataDir.toPath())) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void restartedJobContinuesFromFirstMissingChunk() throws Exception {
+        ExportJobManager manager = createManager();
+        String jobId = submit(manager, 1, 2, 3, 4, 5);
+        ExportJobManager.ExportJob job = manager.findJob(jobId);
+        assertNotNull(job);
+        assertEquals(job.getChunkCount(), 3);
+        assertEquals(myCollected, Arrays.asList(1L, 2L, 3L, 4L, 5L));
+
+        // the server stopped while writing the second chunk, the last one is written by an earlier run
+        manager.destroy();
+        File firstChunk = manager.getChunk(job, 0);
+        File secondChunk = manager.getChunk(job, 1);
+        assertNotNull(firstChunk);
+        assertNotNull(secondChunk);
+        long firstChunkModified = firstChunk.lastModified();
+        Files.delete(secondChunk.toPath());
+        Files.delete(new File(firstChunk.getParentFile(), "finished").toPath());
+        assertEquals(manager.getStatus(job).completedChunks, 1);
+        myCollected.clear();
+
+        ExportJobManager restarted = createManager();
+        waitForState(restarted, jobId, ExportJobManager.ExportJobStatus.FINISHED);
+
+        assertEquals(myCollected, Arrays.asList(3L, 4L, 5L));
+        assertEquals(restarted.getStatus(job).completedChunks, 3);
+        assertEquals(firstChunk.lastModified(), firstChunkModified);
+    }
+
+    @Test
+    public void jobsOverRetentionAreDeleted() throws Exception {
+        System.setProperty(RETENTION_PROPERTY, "1");
+        ExportJobManager manager = createManager();
+        String expired = submit(manager, 1);
+        String kept = submit(manager, 2);
+        setSubmitted(manager, expired, TimeUnit.MINUTES.toMillis(61));
+        setSubmitted(manager, kept, TimeUnit.MINUTES.toMillis(59));
+
+        String submitted = submit(manager, 3);
+
+        assertNull(manager.findJob(expired));
+        assertFalse(new File(getJobsDir(), expired).exists());
+        assertNotNull(manager.findJob(kept));
+        assertNotNull(manager.findJob(submitted));
+    }
+
+    @Test
+    public void oldestJobsOverMaxJobsAreDeleted() throws Exception {
+        System.setProperty(MAX_JOBS_PROPERTY, "2");
+        ExportJobManager manager = createManager();
+        String oldest = submit(manager, 1);
+        String older = submit(manager, 2);
+        setSubmitted(manager, oldest, TimeUnit.MINUTES.toMillis(3));
+        setSubmitted(manager, older, TimeUnit.MINUTES.toMillis(2));
+        // the limit is checked before a job is added
+        String newer = submit(manager, 3);
+        assertNotNull(manager.findJob(oldest));
+        setSubmitted(manager, newer, TimeUnit.MINUTES.toMillis(1));
+
+        String newest = submit(manager, 4);
+
+        assertNull(manager.findJob(oldest));
+        assertFalse(new File(getJobsDir(), oldest).exists());
+        assertNotNull(manager.findJob(older));
+        assertNotNull(manager.findJob(newer));
+        assertNotNull(manager.findJob(newest));
+
+        // the limit is applied on start too
+        System.setProperty(MAX_JOBS_PROPERTY, "1");
+        manager.destroy();
+        ExportJobManager restarted = createManager();
+        assertNull(restarted.findJob(older));
+        assertNull(restarted.findJob(newer));
+        assertNotNull(restarted.findJob(newest));
+    }
+
+    @NotNull
+    private String submit(@NotNull ExportJobManager manager, long... buildIds) throws Exception {
+        BuildTestIds ids = new BuildTestIds();
+        for (long buildId : buildIds) {
+            ids.add(buildId, buildId * 10);
+        }
+        String jobId = manager.submit("Project", ids, new BuildInfoCollector.Options(EnumSet.allOf(InfoField.class),
+                false, 1, 1, new StacktraceExtractor(0, 0, 0), Limits.getDefault()));
+        waitForState(manager, jobId, ExportJobManager.ExportJobStatus.FINISHED);
+        return jobId;
+    }
+
+    /**
+     * Moves the submission time of the job to the past.
+     */
+    private void setSubmitted(@NotNull ExportJobManager manager, @NotNull String jobId, long agoMillis) {
+        assertNotNull(manager.findJob(jobId));
+        assertTrue(new File(new File(getJobsDir(), jobId), "job.json").setLastModified(System.currentTimeMillis() - agoMillis));
+    }
+
+    private static void waitForState(@NotNull ExportJobManager manager, @NotNull String jobId, @NotNull String state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        ExportJobManager.ExportJob job = manager.findJob(jobId);
+        assertNotNull(job);
+        while (!state.equals(manager.getStatus(job).state)) {
+            assertTrue(System.nanoTime() < deadline, "Export job " + jobId + " is " + manager.getStatus(job).state);
+            Thread.sleep(10);
+        }
+    }
+
+    @NotNull
+    private File getJobsDir() {
+        return new File(new ServerPaths(myDataDir.getAbsolutePath()).getPluginDataDirectory(), "assignInfoCollector/exports");
+    }
+
+    @NotNull
+    private ExportJobManager createManager() {
+        ExportJobManager manager = new ExportJobManager(new ServerPaths(myDataDir.getAbsolutePath()),
+                collector(), new CollectorMetrics(), securityContext());
+        myManagers.add(manager);
+        return manager;
+    }
+
+    /**
+     * Returns builds with the requested ids only, the collector dependencies are not used.
+     */
+    @NotNull
+    private BuildInfoCollector collector() {
+        return new BuildInfoCollector(null, null, null, null, null, null) {
+            @NotNull
+            @Override
+            Iterator<BuildInfo> collect(@NotNull BuildTestIds ids, @NotNull Options options, @NotNull RequestMetrics metrics) {
+                List<BuildInfo> builds = new ArrayList<>();
+                for (int i = 0; i < ids.getBuildCount(); i++) {
+                    myCollected.add(ids.getBuildId(i));
+                    builds.add(myGson.fromJson("{buildId: " + ids.getBuildId(i) + "}", BuildInfo.class));
+                }
+                return builds.iterator();
+            }
+        };
+    }
+
+    @NotNull
+    private SecurityContextEx securityContext() {
+        return (SecurityContextEx) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{SecurityContextEx.class},
+                (proxy, method, args) -> {
+                    if ("runAsSystem".equals(method.getName())) {
+                        Method run = method.getParameterTypes()[0].getMethod("run");
+                        try {
+                            return run.invoke(args[0]);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,59 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.testng.Assert.assertEquals;
+
+public class JsonArrayWriterTest {
+    private final Gson myGson = new Gson();
+
+    @Test
+    public void finishedArrayHasTrailingProperties() throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonArrayWriter writer = new JsonArrayWriter(myGson, out, "ids")) {
+            writer.write(1);
+            writer.write(2);
+            writer.addTrailingProperty("cursor", 10L);
+            writer.finish();
+        }
+
+        assertEquals(out.toString(), "{\"ids\":[1,2],\"cursor\":10}");
+    }
+
+    @Test
+    public void failedArrayIsLeftIncomplete() throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonArrayWriter writer = new JsonArrayWriter(myGson, out, "ids")) {
+            writer.write(1);
+            writer.flush();
+            throw new IllegalStateException("failed");
+        } catch (IllegalStateException ignored) {
+        }
+
+        assertEquals(out.toString(), "{\"ids\":[1");
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void failedCompressedArrayHasNoTrailer() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonArrayWriter writer = new JsonArrayWriter(myGson,
+                new OutputStreamWriter(new GZIPOutputStream(out, true), StandardCharsets.UTF_8))) {
+            writer.write(1);
+            writer.flush();
+            throw new IllegalStateException("failed");
+        } catch (IllegalStateException ignored) {
+        }
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            while (in.read() != -1) {
+                // reads up to the missing trailer
+            }
+        }
+    }
+}
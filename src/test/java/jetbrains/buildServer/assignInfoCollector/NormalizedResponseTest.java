@@ -0,0 +1,105 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class NormalizedResponseTest {
+    private final Gson myGson = new Gson();
+
+    @Test
+    public void repeatedValuesShareDictionaryEntries() throws IOException {
+        NormalizedResponse response = new NormalizedResponse(myGson);
+        response.add(build("{buildId: 1," +
+                "committers: [{id: 7, name: 'alice'}]," +
+                "changes: [{changesNames: ['a.txt', 'b.txt'], userName: 'alice'}]," +
+                "tests: [{testRunId: 10, className: 'Foo', testMethod: 'test', stacktrace: 'trace', previousResponsible: ['bob']}]}"));
+        response.add(build("{buildId: 2," +
+                "committers: [{id: 8, name: 'carol'}, {id: 7, name: 'alice'}]," +
+                "changes: [{changesNames: ['b.txt'], userName: 'carol'}]," +
+                "tests: [{testRunId: 20, className: 'Foo', testMethod: 'other', stacktrace: 'trace', previousResponsible: ['alice']}]}"));
+
+        JsonObject result = write(response);
+
+        JsonArray users = result.getAsJsonArray("users");
+        assertEquals(users.size(), 2);
+        assertEquals(users.get(0).getAsJsonObject().get("name").getAsString(), "alice");
+        assertEquals(users.get(1).getAsJsonObject().get("name").getAsString(), "carol");
+        assertEquals(result.getAsJsonArray("strings"),
+                array("'a.txt'", "'b.txt'", "'alice'", "'Foo'", "'test'", "'bob'", "'carol'", "'other'"));
+        assertEquals(result.getAsJsonArray("stacktraces"), array("'trace'"));
+
+        JsonArray builds = result.getAsJsonArray("builds");
+        JsonObject first = builds.get(0).getAsJsonObject();
+        assertEquals(first.getAsJsonArray("committers"), array("0"));
+        JsonObject firstChange = first.getAsJsonArray("changes").get(0).getAsJsonObject();
+        assertEquals(firstChange.get("changesNames"), array("0", "1"));
+        assertEquals(firstChange.get("userName").getAsInt(), 2);
+        JsonObject firstTest = first.getAsJsonArray("tests").get(0).getAsJsonObject();
+        assertEquals(firstTest.get("testRunId").getAsInt(), 10);
+        assertEquals(firstTest.get("className").getAsInt(), 3);
+        assertEquals(firstTest.get("testMethod").getAsInt(), 4);
+        assertEquals(firstTest.get("stacktrace").getAsInt(), 0);
+        assertEquals(firstTest.get("previousResponsible"), array("5"));
+
+        JsonObject second = builds.get(1).getAsJsonObject();
+        assertEquals(second.getAsJsonArray("committers"), array("1", "0"));
+        JsonObject secondChange = second.getAsJsonArray("changes").get(0).getAsJsonObject();
+        assertEquals(secondChange.get("changesNames"), array("1"));
+        assertEquals(secondChange.get("userName").getAsInt(), 6);
+        JsonObject secondTest = second.getAsJsonArray("tests").get(0).getAsJsonObject();
+        assertEquals(secondTest.get("className").getAsInt(), 3);
+        assertEquals(secondTest.get("testMethod").getAsInt(), 7);
+        // equal stack traces of different tests are stored once
+        assertEquals(secondTest.get("stacktrace").getAsInt(), 0);
+        assertEquals(secondTest.get("previousResponsible"), array("2"));
+    }
+
+    @Test
+    public void missingFieldsStayMissing() throws IOException {
+        NormalizedResponse response = new NormalizedResponse(myGson);
+        response.add(build("{buildId: 1}"));
+
+        JsonObject result = write(response);
+
+        assertEquals(result.getAsJsonArray("users").size(), 0);
+        assertEquals(result.getAsJsonArray("strings").size(), 0);
+        JsonObject build = result.getAsJsonArray("builds").get(0).getAsJsonObject();
+        assertEquals(build.get("buildId").getAsLong(), 1);
+        assertFalse(build.has("committers"));
+        assertFalse(build.has("tests"));
+    }
+
+    @NotNull
+    private BuildInfo build(@NotNull String json) {
+        // the fields are set the way the serialized build has them
+        return myGson.fromJson(json, BuildInfo.class);
+    }
+
+    @NotNull
+    private static JsonObject write(@NotNull NormalizedResponse response) throws IOException {
+        StringWriter writer = new StringWriter();
+        response.write(writer);
+        return parse(writer.toString()).getAsJsonObject();
+    }
+
+    @NotNull
+    private static JsonArray array(@NotNull String... values) {
+        return parse("[" + String.join(",", values) + "]").getAsJsonArray();
+    }
+
+    @NotNull
+    private static JsonElement parse(@NotNull String json) {
+        return new JsonParser().parse(json);
+    }
+}
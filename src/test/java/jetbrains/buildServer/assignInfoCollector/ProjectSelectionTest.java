@@ -0,0 +1,123 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import jetbrains.buildServer.issueTracker.errors.NotFoundException;
+import jetbrains.buildServer.serverSide.ProjectManager;
+import jetbrains.buildServer.serverSide.SProject;
+import jetbrains.buildServer.serverSide.auth.AuthorityHolder;
+import jetbrains.buildServer.serverSide.auth.Permission;
+import jetbrains.buildServer.serverSide.auth.Permissions;
+import jetbrains.buildServer.serverSide.auth.SecurityContext;
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.testng.Assert.assertEquals;
+
+public class ProjectSelectionTest {
+    private final Map<String, SProject> myProjects = new HashMap<>();
+    private final Set<String> myViewable = new HashSet<>();
+    private ProjectManager myProjectManager;
+    private SecurityContext mySecurityContext;
+
+    @BeforeMethod
+    public void setUp() {
+        myProjects.clear();
+        myViewable.clear();
+        myProjectManager = (ProjectManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{ProjectManager.class},
+                (proxy, method, args) -> {
+                    if ("findProjectByExternalId".equals(method.getName())) {
+                        return myProjects.get((String) args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        AuthorityHolder authorityHolder = (AuthorityHolder) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{AuthorityHolder.class},
+                (proxy, method, args) -> {
+                    if ("getPermissionsGrantedForProject".equals(method.getName())) {
+                        return myViewable.contains((String) args[0]) ? new Permissions(Permission.VIEW_PROJECT) : new Permissions();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        mySecurityContext = (SecurityContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{SecurityContext.class},
+                (proxy, method, args) -> {
+                    if ("getAuthorityHolder".equals(method.getName())) {
+                        return authorityHolder;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    public void listedProjectsKeepOrderWithoutDuplicates() throws Exception {
+        project("B");
+        project("A");
+
+        assertEquals(ProjectSelection.toParameter(ProjectSelection.resolve(myProjectManager, mySecurityContext, "B, A,,B", null)), "B,A");
+    }
+
+    @Test
+    public void subtreeSkipsSubprojectsUserCannotView() throws Exception {
+        SProject hidden = project("Hidden");
+        myViewable.remove(hidden.getProjectId());
+        project("Root", project("Child"), hidden, project("GrandChild"));
+        project("Other");
+
+        assertEquals(ProjectSelection.toParameter(ProjectSelection.resolve(myProjectManager, mySecurityContext, "Other,Child", "Root")),
+                "Other,Child,Root,GrandChild");
+    }
+
+    @Test(expectedExceptions = IllegalAccessException.class,
+            expectedExceptionsMessageRegExp = "User doesn't have enough permissions.*")
+    public void listedProjectUserCannotViewIsDenied() throws Exception {
+        project("A");
+        myViewable.remove(project("Denied").getProjectId());
+
+        ProjectSelection.resolve(myProjectManager, mySecurityContext, "A,Denied", null);
+    }
+
+    @Test(expectedExceptions = IllegalAccessException.class)
+    public void subtreeRootUserCannotViewIsDenied() throws Exception {
+        SProject root = project("Root", project("Child"));
+        myViewable.remove(root.getProjectId());
+
+        ProjectSelection.resolve(myProjectManager, mySecurityContext, null, "Root");
+    }
+
+    @Test(expectedExceptions = NotFoundException.class)
+    public void unknownProjectIsNotFound() throws Exception {
+        project("A");
+
+        ProjectSelection.resolve(myProjectManager, mySecurityContext, "A,Unknown", null);
+    }
+
+    @Test(expectedExceptions = NotFoundException.class)
+    public void emptySelectionIsNotFound() throws Exception {
+        ProjectSelection.resolve(myProjectManager, mySecurityContext, " , ", "");
+    }
+
+    /**
+     * Creates a viewable project, subprojects are given the way {@link SProject#getProjects()} returns them: all levels
+     */
+    @NotNull
+    private SProject project(@NotNull String externalId, @NotNull SProject... subprojects) {
+        String projectId = "project_" + externalId;
+        SProject project = (SProject) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{SProject.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getProjectId":
+                            return projectId;
+                        case "getExternalId":
+                            return externalId;
+                        case "getProjects":
+                            return Arrays.asList(subprojects);
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        myProjects.put(externalId, project);
+        myViewable.add(projectId);
+        return project;
+    }
+}
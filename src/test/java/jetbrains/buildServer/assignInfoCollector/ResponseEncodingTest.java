@@ -0,0 +1,59 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+
+public class ResponseEncodingTest {
+    @Test
+    public void missingHeaderIsIdentity() {
+        assertEquals(select(null), ResponseEncoding.IDENTITY);
+    }
+
+    @Test
+    public void unknownCodingsAreIdentity() {
+        assertEquals(select("br, identity"), ResponseEncoding.IDENTITY);
+    }
+
+    @Test
+    public void gzipWinsTie() {
+        assertEquals(select("deflate, gzip"), ResponseEncoding.GZIP);
+        assertEquals(select("deflate;q=0.5, gzip;q=0.5"), ResponseEncoding.GZIP);
+    }
+
+    @Test
+    public void highestQualityWins() {
+        assertEquals(select("gzip;q=0.2, deflate;q=0.8"), ResponseEncoding.DEFLATE);
+        assertEquals(select("deflate;q=0.8, gzip"), ResponseEncoding.GZIP);
+    }
+
+    @Test
+    public void zeroQualityIsNotAcceptable() {
+        assertEquals(select("gzip;q=0"), ResponseEncoding.IDENTITY);
+        assertEquals(select("gzip;q=0, deflate"), ResponseEncoding.DEFLATE);
+        assertEquals(select("gzip;q=0, deflate;q=0.0"), ResponseEncoding.IDENTITY);
+    }
+
+    @Test
+    public void malformedQualityIsNotAcceptable() {
+        assertEquals(select("gzip;q=high, deflate;q=0.1"), ResponseEncoding.DEFLATE);
+    }
+
+    @Test
+    public void codingsAreCaseInsensitive() {
+        assertEquals(select(" X-GZIP ; q=1"), ResponseEncoding.GZIP);
+    }
+
+    private static ResponseEncoding select(@Nullable String acceptEncoding) {
+        Map<String, String> headers = new HashMap<>();
+        if (acceptEncoding != null) {
+            headers.put("Accept-Encoding", acceptEncoding);
+        }
+        return ResponseEncoding.select(ServletStubs.request("GET", Collections.emptyMap(), headers, "127.0.0.1"));
+    }
+}
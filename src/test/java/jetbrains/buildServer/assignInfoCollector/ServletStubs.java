@@ -0,0 +1,81 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Requests and responses backed by maps, methods which are not stubbed return null or zero.
+ */
+class ServletStubs {
+    static final String STATUS = ":status";
+
+    private ServletStubs() {
+    }
+
+    @NotNull
+    static HttpServletRequest request(@NotNull String method,
+                                      @NotNull Map<String, String> parameters,
+                                      @NotNull Map<String, String> headers,
+                                      @Nullable String remoteAddr) {
+        return (HttpServletRequest) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class[]{HttpServletRequest.class},
+                (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "getMethod":
+                            return method;
+                        case "getParameter":
+                            return parameters.get((String) args[0]);
+                        case "getHeader":
+                            return headers.get((String) args[0]);
+                        case "getRemoteAddr":
+                            return remoteAddr;
+                        default:
+                            return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    @NotNull
+    static HttpServletRequest get(@NotNull Map<String, String> parameters) {
+        return request("GET", parameters, new HashMap<>(), "127.0.0.1");
+    }
+
+    /**
+     * Response recording its headers and the status of {@code sendError} under {@link #STATUS}.
+     */
+    @NotNull
+    static HttpServletResponse response(@NotNull Map<String, String> recorded) {
+        return (HttpServletResponse) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class[]{HttpServletResponse.class},
+                (proxy, m, args) -> {
+                    switch (m.getName()) {
+                        case "setHeader":
+                        case "addHeader":
+                            recorded.put((String) args[0], (String) args[1]);
+                            return null;
+                        case "sendError":
+                        case "setStatus":
+                            recorded.put(STATUS, String.valueOf(args[0]));
+                            return null;
+                        default:
+                            return defaultValue(m.getReturnType());
+                    }
+                });
+    }
+
+    @Nullable
+    private static Object defaultValue(@NotNull Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        // zero of the primitive type
+        return Array.get(Array.newInstance(type, 1), 0);
+    }
+}
@@ -0,0 +1,124 @@
+package jetbrains.buildServer.assignInfoCollector;
+
+import org.jetbrains.annotations.NotNull;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+
+public class StacktraceExtractorTest {
+    private static final String MAX_LENGTH_MAX_PROPERTY = "teamcity.assignInfoCollector.stacktrace.maxLength.max";
+    private static final String TOP_FRAMES_PROPERTY = "teamcity.assignInfoCollector.stacktrace.topFrames";
+
+    private static final String TRACE = "java.lang.IllegalStateException: failed\n" +
+            "\tat a.A.a(A.java:1)\n" +
+            "\tat a.A.b(A.java:2)\n" +
+            "\tat a.A.c(A.java:3)\n" +
+            "\tat a.A.d(A.java:4)\n" +
+            "Caused by: java.io.IOException: closed\n" +
+            "\tat b.B.a(B.java:1)\n" +
+            "\tat b.B.b(B.java:2)\n" +
+            "\tat b.B.c(B.java:3)\n" +
+            "\t... 4 more\n";
+
+    @AfterMethod
+    public void tearDown() {
+        System.clearProperty(MAX_LENGTH_MAX_PROPERTY);
+        System.clearProperty(TOP_FRAMES_PROPERTY);
+    }
+
+    @Test
+    public void noLimitsKeepTrace() {
+        assertEquals(new StacktraceExtractor(0, 0, 0).truncateFrames(TRACE), TRACE);
+    }
+
+    @Test
+    public void framesBetweenTopAndBottomAreOmitted() {
+        String trace = "java.lang.IllegalStateException: failed\n" +
+                "\tat a.A.a(A.java:1)\n" +
+                "\tat a.A.b(A.java:2)\n" +
+                "\tat a.A.c(A.java:3)\n" +
+                "\tat a.A.d(A.java:4)\n";
+
+        assertEquals(new StacktraceExtractor(0, 1, 1).truncateFrames(trace),
+                "java.lang.IllegalStateException: failed\n" +
+                        "\tat a.A.a(A.java:1)\n" +
+                        "\t... 2 frames omitted\n" +
+                        "\tat a.A.d(A.java:4)\n");
+    }
+
+    @Test
+    public void everyFrameRunIsTruncated() {
+        assertEquals(new StacktraceExtractor(0, 1, 1).truncateFrames(TRACE),
+                "java.lang.IllegalStateException: failed\n" +
+                        "\tat a.A.a(A.java:1)\n" +
+                        "\t... 2 frames omitted\n" +
+                        "\tat a.A.d(A.java:4)\n" +
+                        "Caused by: java.io.IOException: closed\n" +
+                        "\tat b.B.a(B.java:1)\n" +
+                        "\t... 1 frames omitted\n" +
+                        "\tat b.B.c(B.java:3)\n" +
+                        "\t... 4 more\n");
+    }
+
+    @Test
+    public void topFramesOnly() {
+        assertEquals(new StacktraceExtractor(0, 2, 0).truncateFrames(TRACE),
+                "java.lang.IllegalStateException: failed\n" +
+                        "\tat a.A.a(A.java:1)\n" +
+                        "\tat a.A.b(A.java:2)\n" +
+                        "\t... 2 frames omitted\n" +
+                        "Caused by: java.io.IOException: closed\n" +
+                        "\tat b.B.a(B.java:1)\n" +
+                        "\tat b.B.b(B.java:2)\n" +
+                        "\t... 1 frames omitted\n" +
+                        "\t... 4 more\n");
+    }
+
+    @Test
+    public void shortRunsAreKept() {
+        assertEquals(new StacktraceExtractor(0, 2, 2).truncateFrames(TRACE), TRACE);
+    }
+
+    @Test
+    public void textWithoutFramesIsKept() {
+        String output = "expected:<1> but was:<2>\r\nsecond line";
+
+        assertEquals(new StacktraceExtractor(0, 1, 1).truncateFrames(output), output);
+    }
+
+    @Test
+    public void parametersAreCappedByServerMax() {
+        System.setProperty(MAX_LENGTH_MAX_PROPERTY, "500");
+        System.setProperty(TOP_FRAMES_PROPERTY, "3");
+
+        StacktraceExtractor extractor = StacktraceExtractor.create(request("stacktraceMaxLength", "1000", "stacktraceBottomFrames", "0"));
+
+        assertEquals(extractor.maxLength, 500);
+        assertEquals(extractor.topFrames, 3);
+        assertEquals(extractor.bottomFrames, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "stacktraceTopFrames must not be negative, got -1")
+    public void negativeParameterIsRejected() {
+        StacktraceExtractor.create(request("stacktraceTopFrames", "-1"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "stacktraceMaxLength must be a number, got 'long'")
+    public void malformedParameterIsRejected() {
+        StacktraceExtractor.create(request("stacktraceMaxLength", "long"));
+    }
+
+    @NotNull
+    private static HttpServletRequest request(String... parameters) {
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < parameters.length; i += 2) {
+            result.put(parameters[i], parameters[i + 1]);
+        }
+        return ServletStubs.get(result);
+    }
+}